@@ -20,6 +20,7 @@ public class SmartTAProperties {
     private RagConfig rag = new RagConfig();
     private SessionConfig session = new SessionConfig();
     private TimeoutConfig timeout = new TimeoutConfig();
+    private CacheConfig cache = new CacheConfig();
 
     @Data
     public static class ApiConfig {
@@ -36,7 +37,32 @@ public class SmartTAProperties {
 
     @Data
     public static class EmbeddingConfig {
-        private String modelName = "sentence-transformers/all-mpnet-base-v2";
+        private String modelName = "sentence-transformers/all-MiniLM-L6-v2"; // 仅用于日志，实际加载内置的 all-MiniLM-L6-v2
+        private QueryCacheConfig queryCache = new QueryCacheConfig();
+        private EmbeddingBatchConfig batch = new EmbeddingBatchConfig();
+        private MicroBatchConfig microBatch = new MicroBatchConfig();
+    }
+
+    @Data
+    public static class MicroBatchConfig {
+        private boolean enabled = true;
+        private int maxBatchSize = 32; // 凑满该数量的并发查询立即推理
+        private long maxWaitMicros = 2000; // 第一个查询到达后最多等待的微秒数
+    }
+
+    @Data
+    public static class EmbeddingBatchConfig {
+        private int maxBatchSize = 32; // 一次推理最多包含的序列数
+        private int maxBatchTokens = 8192; // 一次推理补齐后的词元总数上限（序列数 × 最长序列长度）
+        private int workers = 2; // 并发推理的批次数
+        private int intraOpThreads = 0; // 每次推理的线程数，0 表示 CPU 核数 / workers
+    }
+
+    @Data
+    public static class QueryCacheConfig {
+        private long maximumSize = 10000; // 缓存的查询向量条数，0 表示不缓存
+        private long expireAfterWriteMinutes = 24 * 60; // 写入后的有效期（分钟），0 表示不过期
+        private String persistFile = ""; // 关闭时保存、启动时恢复缓存的文件，为空表示不持久化
     }
 
     @Data
@@ -57,6 +83,35 @@ public class SmartTAProperties {
         private String pdfDir = "./data/pdfs";
         private String dbPath = "./data/faiss_index";
         private String dataDir = "./data";
+        private CompactionConfig compaction = new CompactionConfig();
+        private int chunkCacheSize = 1024; // 热点文档块文本的 LRU 缓存条数，0 表示不缓存
+        private String vectorPrecision = "float32"; // 新写入段的向量精度：float32 或 float16
+        private CollectionsConfig collections = new CollectionsConfig();
+        private IngestConfig ingest = new IngestConfig();
+    }
+
+    @Data
+    public static class IngestConfig {
+        private int extractWorkers = 0; // 文本提取阶段的线程数，0 表示 CPU 核数
+        private int chunkWorkers = 1; // 分块阶段的线程数
+        private int embedWorkers = 0; // 向量化阶段同时处理的文件数，0 表示与 model.embedding.batch.workers 相同
+        private int queueCapacity = 8; // 相邻阶段之间队列的容量（文件数），队列满时上游阻塞
+        private int appendBatchChunks = 4096; // 写入阶段累积到该数量的文档块后写成一个段
+        private boolean syncOnStartup = true; // 启动时数据库已存在，在后台按文件指纹增量同步文档目录
+    }
+
+    @Data
+    public static class CollectionsConfig {
+        private String dir = "./data/collections"; // 命名集合的根目录，每个集合占用其下同名子目录
+        private long memoryBudgetMb = 2048; // 全部已加载集合的估算常驻内存上限，超出时按最近最少使用卸载，0 表示不限
+    }
+
+    @Data
+    public static class CompactionConfig {
+        private boolean enabled = true;
+        private int smallSegmentRows = 4096; // 行数低于该值的段视为小段
+        private int triggerSegments = 8; // 小段数量达到该值时触发后台合并
+        private double purgeDeletedRatio = 0.2; // 段内已删除行的比例达到该值时重写该段，清除已删除的向量
     }
 
     @Data
@@ -64,6 +119,47 @@ public class SmartTAProperties {
         private int topK = 3;
         private int chunkSize = 1000;
         private int chunkOverlap = 200;
+        private String searchEngine = "exact"; // 检索引擎：exact（精确暴力检索）、hnsw（近似最近邻图）或 ivfpq（倒排乘积量化）
+        private HnswConfig hnsw = new HnswConfig();
+        private IvfPqConfig ivfpq = new IvfPqConfig();
+        private ScanConfig scan = new ScanConfig();
+        private PrefilterConfig prefilter = new PrefilterConfig();
+    }
+
+    @Data
+    public static class IvfPqConfig {
+        private int lists = 256; // 粗聚类质心（倒排列表）数量
+        private int subspaces = 48; // PQ 子空间数量，须整除向量维度，每行编码为同样多的字节
+        private int nprobe = 16; // 每次查询探查的列表数
+        private int trainingSampleSize = 16384; // 训练时最多抽取的样本数
+        private int trainingIterations = 10; // k-means 迭代次数
+        private int rescoreCandidates = 500; // 以 float 向量重排的候选数量，不少于 topK
+        private int retrainGrowthFactor = 10; // 数据量增长到训练时的该倍数后，加载时重新训练模型
+    }
+
+    @Data
+    public static class PrefilterConfig {
+        private String mode = "none"; // 精确检索的粗筛方式：none（不粗筛）、int8（int8 量化）、binary（符号位二值量化）或 projection（随机正交投影降维），粗筛后以 float 重排
+        private int rescoreCandidates = 100; // int8 粗筛保留、交给 float 重排的候选数量，不少于 topK
+        private int binaryRescoreCandidates = 1000; // 二值粗筛精度较低，需要保留更多候选
+        private int projectionDimension = 96; // 投影后的维度，不超过嵌入维度
+        private long projectionSeed = 42L; // 投影矩阵的随机种子，相同种子重启后得到相同投影
+        private int projectionRescoreCandidates = 300; // 投影粗筛保留、交给 float 重排的候选数量
+    }
+
+    @Data
+    public static class HnswConfig {
+        private int m = 16;
+        private int efConstruction = 200;
+        private int efSearch = 64;
+    }
+
+    @Data
+    public static class ScanConfig {
+        private boolean parallel = true;
+        private int parallelism = 0; // 扫描线程数，0 表示使用全部CPU核心
+        private int partitionSize = 2048; // 每个分区的行数，384维时约3MB
+        private int parallelThreshold = 32768; // 行数达到该值才启用并行扫描
     }
 
     @Data
@@ -71,6 +167,27 @@ public class SmartTAProperties {
         private int maxConversationHistory = 5;
     }
 
+    @Data
+    public static class CacheConfig {
+        private SemanticAnswerCacheConfig semanticAnswer = new SemanticAnswerCacheConfig();
+        private ResponseCacheConfig response = new ResponseCacheConfig();
+    }
+
+    @Data
+    public static class ResponseCacheConfig {
+        private boolean enabled = true;
+        private long maximumWeightMb = 64; // 缓存键与答案文本的估算内存上限（MB）
+        private long expireAfterWriteMinutes = 12 * 60; // 写入后的有效期（分钟），0 表示不过期
+    }
+
+    @Data
+    public static class SemanticAnswerCacheConfig {
+        private boolean enabled = false; // 近似匹配可能把措辞相近、含义不同的问题当作同一问题，默认关闭
+        private double similarityThreshold = 0.97; // 新问题与缓存问题的向量余弦相似度达到该值才视为同一问题
+        private long maximumSize = 2000; // 缓存的（集合、检索结果、代码上下文、历史对话）组合数，按最近最少使用淘汰
+        private long expireAfterWriteMinutes = 12 * 60; // 写入后的有效期（分钟），0 表示不过期
+    }
+
     @Data
     public static class TimeoutConfig {
         private int requestTimeout = 120;
@@ -29,6 +29,10 @@ public class SmartTAController {
     private final DocGeneratorService docGeneratorService;
     private final GitCommitMessageService gitCommitMessageService;
     private final ModelManager modelManager;
+    private final CollectionManager collectionManager;
+    private final SemanticAnswerCache semanticAnswerCache;
+    private final ResponseCache responseCache;
+    private final ConversationManager conversationManager;
 
     /**
      * 提问接口 - 使用优化的会话管理器
@@ -51,15 +55,33 @@ public class SmartTAController {
 
             // 检索相关上下文
             List<Map<String, String>> retrievedChunks = 
-                    retrieverService.retrieveContext(request.getQuestion());
+                    retrieverService.retrieveContext(request.getQuestion(), null, request.getFilter(),
+                            request.getCollection());
+
+            // 提示词完全相同的请求直接返回缓存的答案
+            String cacheKey = responseCache.key(
+                    request.getCollection(),
+                    collectionManager.get(request.getCollection()).getIndexVersion(),
+                    request.getQuestion(),
+                    request.getContextCode(),
+                    conversationManager.formatHistory(sessionId),
+                    retrievedChunks);
+            String answer = responseCache.get(cacheKey);
+            if (answer != null) {
+                log.info("问答响应缓存命中 - 会话ID: {}", sessionId);
+                conversationManager.append(sessionId, request.getQuestion(), answer, request.getContextCode());
+                return ResponseEntity.ok(new AnswerResponse(answer, sessionId));
+            }
 
             // 生成答案
-            String answer = generatorService.getAnswer(
+            answer = generatorService.getAnswer(
                     request.getQuestion(),
                     retrievedChunks,
                     request.getContextCode(),
-                    sessionId
+                    sessionId,
+                    request.getCollection()
             );
+            responseCache.put(cacheKey, answer);
 
             log.info("回答生成完成 - 会话ID: {}", sessionId);
 
@@ -74,34 +96,60 @@ public class SmartTAController {
         }
     }
 
+    /**
+     * 批量检索接口 - 一次请求检索多个查询，供离线评测与多查询检索使用
+     * 请求体：{"queries": ["...", "..."], "top_k": 5, "collection": "cs101"}，top_k 与 collection 可省略
+     */
+    @PostMapping("/search_batch")
+    public ResponseEntity<Map<String, Object>> searchBatch(@RequestBody Map<String, Object> request) {
+        try {
+            Object queries = request.get("queries");
+            if (!(queries instanceof List<?> list) || list.isEmpty()) {
+                Map<String, Object> error = new HashMap<>();
+                error.put("error", "queries 必须是非空的查询文本列表");
+                return ResponseEntity.badRequest().body(error);
+            }
+            List<String> texts = list.stream().map(String::valueOf).toList();
+            Object topK = request.get("top_k");
+            Integer k = topK instanceof Number number ? number.intValue() : null;
+            Object collection = request.get("collection");
+
+            log.info("批量检索 - 查询数量: {}", texts.size());
+            List<List<Map<String, String>>> results = retrieverService.retrieveContextBatch(texts, k,
+                    collection != null ? String.valueOf(collection) : null);
+
+            Map<String, Object> response = new HashMap<>();
+            response.put("results", results);
+            return ResponseEntity.ok(response);
+
+        } catch (Exception e) {
+            log.error("批量检索失败", e);
+            Map<String, Object> error = new HashMap<>();
+            error.put("error", "批量检索失败：" + e.getMessage());
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(error);
+        }
+    }
+
     /**
      * 添加文档文件到知识库（支持PDF、DOCX、TXT、PPTX等）
      */
     @PostMapping("/add_documents")
     public ResponseEntity<Map<String, Object>> addDocuments(
             @RequestParam(required = false) MultipartFile file,
-            @RequestParam(required = false) String directory) {
+            @RequestParam(required = false) String directory,
+            @RequestParam(required = false) String collection) {
         try {
             Map<String, Object> result;
             
             if (file != null && !file.isEmpty()) {
                 log.info("添加文档文件: {}", file.getOriginalFilename());
-                result = preprocessorService.preprocessDocuments(file, null, null);
-                
-                // 重新加载数据库以反映更改
-                modelManager.reloadDatabase();
-                log.info("数据库已重新加载");
-                
+                // 新增的段在写入后立即对检索可见，无需重新加载数据库
+                result = preprocessorService.preprocessDocuments(file, null, null, collection);
                 return ResponseEntity.ok(result);
             } 
             else if (directory != null && !directory.isEmpty()) {
                 log.info("添加文档目录: {}", directory);
-                result = preprocessorService.preprocessDocuments(null, directory, null);
-                
-                // 重新加载数据库以反映更改
-                modelManager.reloadDatabase();
-                log.info("数据库已重新加载");
-                
+                result = preprocessorService.preprocessDocuments(null, directory, null, collection);
                 return ResponseEntity.ok(result);
             } 
             else {
@@ -118,6 +166,45 @@ public class SmartTAController {
         }
     }
     
+    /**
+     * 按来源删除知识库中的文档
+     */
+    @PostMapping("/delete_documents")
+    public ResponseEntity<Map<String, Object>> deleteDocuments(
+            @RequestParam String source,
+            @RequestParam(required = false) String collection) {
+        try {
+            log.info("删除文档: {}，集合: {}", source, collection);
+            int deleted;
+            try (CollectionManager.Lease lease = collectionManager.acquire(collection)) {
+                deleted = lease.store().deleteDocuments(source);
+            }
+
+            Map<String, Object> response = new HashMap<>();
+            response.put("message", deleted > 0
+                    ? "已删除来源 " + source + " 的 " + deleted + " 个文档片段。"
+                    : "未找到来源为 " + source + " 的文档。");
+            response.put("deleted_count", deleted);
+            return ResponseEntity.ok(response);
+
+        } catch (Exception e) {
+            log.error("删除文档失败", e);
+            Map<String, Object> error = new HashMap<>();
+            error.put("error", "删除文档时出错：" + e.getMessage());
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(error);
+        }
+    }
+
+    /**
+     * 列出默认集合与已创建的命名集合及其加载状态
+     */
+    @GetMapping("/collections")
+    public ResponseEntity<Map<String, Object>> listCollections() {
+        Map<String, Object> response = new HashMap<>();
+        response.put("collections", collectionManager.list());
+        return ResponseEntity.ok(response);
+    }
+
     /**
      * 添加PDF文件到知识库（保留以兼容旧版本）
      * @deprecated 使用 /add_documents 替代
@@ -127,7 +214,7 @@ public class SmartTAController {
     public ResponseEntity<Map<String, Object>> addPdfs(
             @RequestParam(required = false) MultipartFile file,
             @RequestParam(required = false) String directory) {
-        return addDocuments(file, directory);
+        return addDocuments(file, directory, null);
     }
 
     /**
@@ -156,6 +243,18 @@ public class SmartTAController {
         }
     }
 
+    /**
+     * 缓存统计接口
+     */
+    @GetMapping("/cache_stats")
+    public ResponseEntity<Map<String, Object>> cacheStats() {
+        Map<String, Object> response = new HashMap<>();
+        response.put("query_embedding", modelManager.getEmbeddingService().queryCacheStats());
+        response.put("semantic_answer", semanticAnswerCache.stats());
+        response.put("response", responseCache.stats());
+        return ResponseEntity.ok(response);
+    }
+
     /**
      * 生成项目文档
      */
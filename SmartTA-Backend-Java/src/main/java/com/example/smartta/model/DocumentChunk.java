@@ -19,5 +19,10 @@ public class DocumentChunk implements Serializable {
     private String page;
     private String content;
     private float[] embedding;
+    private String id; // 所在段与段内行号，段不可变，相同 id 总对应相同内容
+
+    public DocumentChunk(String source, String page, String content, float[] embedding) {
+        this(source, page, content, embedding, null);
+    }
 }
 
@@ -12,5 +12,7 @@ public class QuestionRequest {
     @JsonProperty("context_code")
     private String contextCode = "";
     private String sessionId; // 可选的会话ID
+    private SearchFilter filter; // 可选的检索过滤条件
+    private String collection; // 可选的集合名称（如课程），未指定时使用默认集合
 }
 
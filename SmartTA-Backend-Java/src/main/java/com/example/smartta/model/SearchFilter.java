@@ -0,0 +1,19 @@
+package com.example.smartta.model;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import lombok.Data;
+
+import java.util.List;
+
+/**
+ * 检索过滤条件模型
+ * 例如只检索第 3 至 5 讲的课件：{"sources": ["lecture3.pdf", "lecture4.pdf", "lecture5.pdf"]}
+ */
+@Data
+public class SearchFilter {
+    private List<String> sources; // 允许的来源文件名，为空表示不限
+    @JsonProperty("page_from")
+    private Integer pageFrom; // 起始页码（含）
+    @JsonProperty("page_to")
+    private Integer pageTo; // 结束页码（含）
+}
@@ -0,0 +1,246 @@
+package com.example.smartta.service;
+
+import com.example.smartta.config.SmartTAProperties;
+import com.example.smartta.exception.DatabaseException;
+import com.example.smartta.exception.RequestValidationException;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * 向量集合管理器
+ * 每个命名集合（如一门课程）在集合根目录下拥有独立的段文件与索引，按需创建并在首次查询时映射加载。
+ * 已打开的集合按访问顺序排列，估算常驻内存超出预算时卸载最近最少使用的集合；
+ * 正在写入的集合通过 {@link #acquire} 固定，不会被卸载。卸载中的集合关闭完成前不会被重新打开，
+ * 避免新旧两个实例同时操作同一目录下的清单与段文件。
+ * 默认集合即 db-path 下的数据库，始终常驻
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class CollectionManager {
+
+    public static final String DEFAULT_COLLECTION = "default";
+    private static final Pattern NAME_PATTERN = Pattern.compile("[A-Za-z0-9_-]{1,64}");
+
+    private final SmartTAProperties properties;
+    private final VectorStoreService defaultStore;
+
+    // 访问顺序的 LinkedHashMap，迭代顺序即从最久未用到最近使用
+    private final Map<String, VectorStoreService> resident = new LinkedHashMap<>(16, 0.75f, true);
+    // 各集合正在进行的写入数量，大于 0 时不会被卸载
+    private final Map<String, Integer> writers = new HashMap<>();
+    // 已移出、尚未关闭完成的集合
+    private final Map<String, CompletableFuture<Void>> closing = new HashMap<>();
+
+    /**
+     * 获取集合，未打开时创建实例，数据在首次查询时加载
+     *
+     * @param name 集合名称，为空或 default 时返回默认集合
+     */
+    public VectorStoreService get(String name) {
+        if (isDefault(name)) {
+            return defaultStore;
+        }
+        return open(name, false);
+    }
+
+    /**
+     * 获取集合并在租约关闭前固定，用于入库、删除等写入操作
+     *
+     * @param name 集合名称，为空或 default 时返回默认集合
+     */
+    public Lease acquire(String name) {
+        if (isDefault(name)) {
+            return new Lease(null, defaultStore);
+        }
+        return new Lease(name, open(name, true));
+    }
+
+    private VectorStoreService open(String name, boolean pin) {
+        if (!NAME_PATTERN.matcher(name).matches()) {
+            throw new RequestValidationException("集合名称只能包含字母、数字、下划线和连字符，且不超过 64 个字符：" + name);
+        }
+
+        while (true) {
+            VectorStoreService store;
+            Map<String, VectorStoreService> evicted;
+            CompletableFuture<Void> pending;
+            synchronized (this) {
+                pending = resident.containsKey(name) ? null : closing.get(name);
+                if (pending == null) {
+                    store = resident.get(name);
+                    if (store == null) {
+                        store = new VectorStoreService(properties, collectionPath(name), defaultStore.scanner());
+                        store.init();
+                        resident.put(name, store);
+                        log.info("打开集合 {}：{}", name, store.dbPath());
+                    }
+                    if (pin) {
+                        writers.merge(name, 1, Integer::sum);
+                    }
+                    evicted = evictOverBudget(name);
+                } else {
+                    store = null;
+                    evicted = Map.of();
+                }
+            }
+            if (pending != null) {
+                // 同名集合仍在关闭，完成后再重新打开
+                pending.join();
+                continue;
+            }
+            // 卸载在锁外进行，关闭较慢的集合不会阻塞其他集合的获取
+            evicted.forEach(this::close);
+            return store;
+        }
+    }
+
+    private void close(String name, VectorStoreService store) {
+        try {
+            store.shutdown();
+        } finally {
+            CompletableFuture<Void> done;
+            synchronized (this) {
+                done = closing.remove(name);
+            }
+            if (done != null) {
+                done.complete(null);
+            }
+        }
+    }
+
+    private synchronized void release(String name) {
+        writers.computeIfPresent(name, (key, count) -> count > 1 ? count - 1 : null);
+    }
+
+    /**
+     * 默认集合与集合根目录下已有集合的状态
+     */
+    public List<Map<String, Object>> list() {
+        Map<String, VectorStoreService> open;
+        synchronized (this) {
+            // 复制一份，遍历不改变访问顺序
+            open = new HashMap<>(resident);
+        }
+        List<Map<String, Object>> collections = new ArrayList<>();
+        collections.add(describe(DEFAULT_COLLECTION, defaultStore));
+        Path root = Paths.get(properties.getData().getCollections().getDir());
+        if (!Files.isDirectory(root)) {
+            return collections;
+        }
+        try (Stream<Path> dirs = Files.list(root)) {
+            dirs.filter(Files::isDirectory)
+                    .map(dir -> dir.getFileName().toString())
+                    .filter(name -> NAME_PATTERN.matcher(name).matches())
+                    .sorted()
+                    .forEach(name -> collections.add(describe(name, open.get(name))));
+        } catch (IOException e) {
+            throw new DatabaseException("读取集合目录失败：" + root, e);
+        }
+        return collections;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        List<VectorStoreService> stores;
+        List<CompletableFuture<Void>> pending;
+        synchronized (this) {
+            stores = new ArrayList<>(resident.values());
+            resident.clear();
+            pending = new ArrayList<>(closing.values());
+        }
+        for (VectorStoreService store : stores) {
+            store.shutdown();
+        }
+        pending.forEach(CompletableFuture::join);
+    }
+
+    /**
+     * 从最久未用的集合开始移出，直到估算常驻内存回到预算内；当前访问的集合与正在写入的集合不会被移出。
+     * 移出的集合登记为关闭中，由调用方在锁外关闭
+     */
+    private Map<String, VectorStoreService> evictOverBudget(String current) {
+        Map<String, VectorStoreService> evicted = new LinkedHashMap<>();
+        long budget = properties.getData().getCollections().getMemoryBudgetMb() * 1024 * 1024;
+        if (budget <= 0) {
+            return evicted;
+        }
+        long total = defaultStore.residentBytes();
+        for (VectorStoreService store : resident.values()) {
+            total += store.residentBytes();
+        }
+        Iterator<Map.Entry<String, VectorStoreService>> it = resident.entrySet().iterator();
+        while (total > budget && it.hasNext()) {
+            Map.Entry<String, VectorStoreService> entry = it.next();
+            if (entry.getKey().equals(current) || writers.containsKey(entry.getKey())) {
+                continue;
+            }
+            long bytes = entry.getValue().residentBytes();
+            it.remove();
+            evicted.put(entry.getKey(), entry.getValue());
+            closing.put(entry.getKey(), new CompletableFuture<>());
+            total -= bytes;
+            log.info("集合 {} 超出内存预算被卸载，释放约 {} MB", entry.getKey(), bytes / (1024 * 1024));
+        }
+        return evicted;
+    }
+
+    private Map<String, Object> describe(String name, VectorStoreService store) {
+        Map<String, Object> info = new LinkedHashMap<>();
+        info.put("name", name);
+        info.put("loaded", store != null && store.isInitialized());
+        info.put("resident_mb", store != null ? store.residentBytes() / (1024 * 1024) : 0);
+        return info;
+    }
+
+    private Path collectionPath(String name) {
+        return Paths.get(properties.getData().getCollections().getDir(), name);
+    }
+
+    private static boolean isDefault(String name) {
+        return name == null || name.isBlank() || DEFAULT_COLLECTION.equals(name);
+    }
+
+    /**
+     * 写入期间对集合的固定，关闭后集合恢复为可卸载
+     */
+    public final class Lease implements AutoCloseable {
+        private final String name;
+        private final VectorStoreService store;
+        private boolean released;
+
+        private Lease(String name, VectorStoreService store) {
+            this.name = name;
+            this.store = store;
+        }
+
+        public VectorStoreService store() {
+            return store;
+        }
+
+        @Override
+        public void close() {
+            if (released || name == null) {
+                return;
+            }
+            released = true;
+            release(name);
+        }
+    }
+}
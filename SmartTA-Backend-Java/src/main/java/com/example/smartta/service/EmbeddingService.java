@@ -1,24 +1,48 @@
 package com.example.smartta.service;
 
 import com.example.smartta.config.SmartTAProperties;
-import dev.langchain4j.data.embedding.Embedding;
-import dev.langchain4j.model.embedding.EmbeddingModel;
-import dev.langchain4j.model.embedding.onnx.allminilml6v2.AllMiniLmL6V2EmbeddingModel;
+import com.example.smartta.service.embedding.BertBatchEncoder;
+import com.example.smartta.service.embedding.MicroBatcher;
+import com.google.common.cache.CacheStats;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
 
 import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * 嵌入服务
- * 负责文本向量化
+ * 负责文本向量化。批量向量化时按词元长度排序、补齐成批，在工作线程池中并发推理
  */
 @Slf4j
 @Service
 public class EmbeddingService {
 
+    // LangChain4j all-MiniLM-L6-v2 模块随附的模型与分词器
+    private static final String MODEL_RESOURCE = "all-minilm-l6-v2.onnx";
+    private static final String TOKENIZER_RESOURCE = "all-minilm-l6-v2-tokenizer.json";
+
     private final SmartTAProperties properties;
-    private EmbeddingModel embeddingModel;
+    private BertBatchEncoder encoder;
+    private ExecutorService workers;
+    private ExecutorService queryWorkers;
+    private MicroBatcher<String, float[]> queryBatcher;
+    private QueryEmbeddingCache queryCache;
 
     public EmbeddingService(SmartTAProperties properties) {
         this.properties = properties;
@@ -27,9 +51,60 @@ public class EmbeddingService {
     @PostConstruct
     public void init() {
         log.info("初始化嵌入模型：{}", properties.getModel().getEmbedding().getModelName());
-        // 使用 LangChain4j 提供的轻量级嵌入模型
-        this.embeddingModel = new AllMiniLmL6V2EmbeddingModel();
-        log.info("嵌入模型初始化完成");
+        // 使用 LangChain4j 提供的轻量级嵌入模型，直接以 ONNX Runtime 批量推理
+        SmartTAProperties.EmbeddingBatchConfig batch = properties.getModel().getEmbedding().getBatch();
+        int workerCount = Math.max(batch.getWorkers(), 1);
+        int intraOpThreads = batch.getIntraOpThreads() > 0
+                ? batch.getIntraOpThreads()
+                : Math.max(Runtime.getRuntime().availableProcessors() / workerCount, 1);
+        this.encoder = BertBatchEncoder.fromClasspath(MODEL_RESOURCE, TOKENIZER_RESOURCE, intraOpThreads);
+        this.workers = newWorkerPool("embedding-worker-", workerCount);
+        log.info("嵌入模型初始化完成：{}，推理线程：{} × {}", encoder.modelId(), workerCount, intraOpThreads);
+
+        SmartTAProperties.MicroBatchConfig microBatch = properties.getModel().getEmbedding().getMicroBatch();
+        if (microBatch.isEnabled()) {
+            // 查询批次使用独立线程池，不排在入库的批量推理之后；批次在线程内就地推理
+            queryWorkers = newWorkerPool("query-embedding-worker-", workerCount);
+            queryBatcher = new MicroBatcher<>("query-embedding-batcher",
+                    texts -> Arrays.asList(embedAll(texts, false)), queryWorkers,
+                    microBatch.getMaxBatchSize(), microBatch.getMaxWaitMicros(), workerCount);
+        }
+
+        SmartTAProperties.QueryCacheConfig config = properties.getModel().getEmbedding().getQueryCache();
+        queryCache = new QueryEmbeddingCache(config.getMaximumSize(), config.getExpireAfterWriteMinutes());
+        Path file = persistFile();
+        if (file != null && Files.exists(file)) {
+            try {
+                int restored = queryCache.load(file, encoder.modelId());
+                log.info("从 {} 恢复查询向量缓存 {} 条", file, restored);
+            } catch (IOException e) {
+                log.warn("恢复查询向量缓存失败，将从空缓存开始：{}", e.getMessage());
+            }
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (queryBatcher != null) {
+            queryBatcher.close();
+            queryWorkers.shutdownNow();
+        }
+        if (workers != null) {
+            workers.shutdownNow();
+        }
+        if (encoder != null) {
+            encoder.close();
+        }
+        Path file = persistFile();
+        if (file == null || queryCache == null || encoder == null) {
+            return;
+        }
+        try {
+            queryCache.save(file, encoder.modelId());
+            log.info("查询向量缓存已保存到 {}，共 {} 条", file, queryCache.size());
+        } catch (IOException e) {
+            log.warn("保存查询向量缓存失败", e);
+        }
     }
 
     /**
@@ -39,20 +114,137 @@ public class EmbeddingService {
      * @return 向量数组
      */
     public float[] embed(String text) {
-        Embedding embedding = embeddingModel.embed(text).content();
-        return embedding.vector();
+        List<BertBatchEncoder.Window> windows = encoder.windows(text);
+        List<float[]> vectors = List.of(encoder.encode(windows));
+        return BertBatchEncoder.combine(vectors, windows);
+    }
+
+    /**
+     * 对查询文本进行向量化，经过查询向量缓存。
+     * 规范化后相同的查询直接返回缓存的向量；未命中的并发查询经微批处理器合并为一次推理。
+     * 文档块入库时应使用 {@link #embed(String)}，避免占用缓存
+     *
+     * @param query 查询文本
+     * @return 向量数组
+     */
+    public float[] embedQuery(String query) {
+        return queryCache.get(query, () -> queryBatcher != null ? queryBatcher.submit(query).join() : embed(query));
+    }
+
+    /**
+     * 查询向量缓存的命中统计
+     */
+    public Map<String, Object> queryCacheStats() {
+        CacheStats stats = queryCache.stats();
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("size", queryCache.size());
+        result.put("hit_count", stats.hitCount());
+        result.put("miss_count", stats.missCount());
+        result.put("hit_rate", stats.hitRate());
+        result.put("eviction_count", stats.evictionCount());
+        result.put("average_load_ms", stats.averageLoadPenalty() / 1_000_000.0);
+        if (queryBatcher != null) {
+            long batches = queryBatcher.batchCount();
+            result.put("inference_batches", batches);
+            result.put("average_batch_size", batches > 0 ? (double) queryBatcher.itemCount() / batches : 0.0);
+        }
+        return result;
     }
 
     /**
      * 批量向量化
+     * 各文本切分为编码窗口后按长度排序，相邻长度的窗口组成一批，批内补齐到最长窗口，
+     * 每批的序列数与补齐后的词元总数都不超过配置上限；各批在工作线程池中并发推理
      *
      * @param texts 文本列表
      * @return 向量数组列表
      */
-    public float[][] embedAll(java.util.List<String> texts) {
-        return texts.stream()
-                .map(this::embed)
-                .toArray(float[][]::new);
+    public float[][] embedAll(List<String> texts) {
+        return embedAll(texts, true);
+    }
+
+    /**
+     * @param parallel 是否把各批提交到工作线程池；为 false 时在当前线程依次推理
+     */
+    private float[][] embedAll(List<String> texts, boolean parallel) {
+        if (texts.isEmpty()) {
+            return new float[0][];
+        }
+        List<List<BertBatchEncoder.Window>> windows = new ArrayList<>(texts.size());
+        List<int[]> refs = new ArrayList<>();
+        for (int t = 0; t < texts.size(); t++) {
+            List<BertBatchEncoder.Window> textWindows = encoder.windows(texts.get(t));
+            windows.add(textWindows);
+            for (int w = 0; w < textWindows.size(); w++) {
+                refs.add(new int[]{t, w});
+            }
+        }
+        refs.sort(Comparator.comparingInt(ref -> windows.get(ref[0]).get(ref[1]).length()));
+
+        List<List<int[]>> batches = partition(refs, windows);
+        List<CompletableFuture<float[][]>> futures = new ArrayList<>(batches.size());
+        for (List<int[]> batch : batches) {
+            List<BertBatchEncoder.Window> inputs = batch.stream()
+                    .map(ref -> windows.get(ref[0]).get(ref[1]))
+                    .toList();
+            futures.add(!parallel || batches.size() == 1
+                    ? CompletableFuture.completedFuture(encoder.encode(inputs))
+                    : CompletableFuture.supplyAsync(() -> encoder.encode(inputs), workers));
+        }
+
+        float[][][] vectors = new float[texts.size()][][];
+        for (int t = 0; t < texts.size(); t++) {
+            vectors[t] = new float[windows.get(t).size()][];
+        }
+        for (int b = 0; b < batches.size(); b++) {
+            float[][] pooled = futures.get(b).join();
+            List<int[]> batch = batches.get(b);
+            for (int i = 0; i < batch.size(); i++) {
+                int[] ref = batch.get(i);
+                vectors[ref[0]][ref[1]] = pooled[i];
+            }
+        }
+
+        float[][] embeddings = new float[texts.size()][];
+        for (int t = 0; t < texts.size(); t++) {
+            embeddings[t] = BertBatchEncoder.combine(List.of(vectors[t]), windows.get(t));
+        }
+        return embeddings;
     }
-}
 
+    /**
+     * 将按长度升序排列的窗口切分为批次
+     */
+    private List<List<int[]>> partition(List<int[]> sortedRefs, List<List<BertBatchEncoder.Window>> windows) {
+        SmartTAProperties.EmbeddingBatchConfig config = properties.getModel().getEmbedding().getBatch();
+        int maxSize = Math.max(config.getMaxBatchSize(), 1);
+        int maxTokens = config.getMaxBatchTokens();
+        List<List<int[]>> batches = new ArrayList<>();
+        List<int[]> current = new ArrayList<>();
+        for (int[] ref : sortedRefs) {
+            int length = windows.get(ref[0]).get(ref[1]).length();
+            // 升序排列，加入后本批最长的就是当前窗口
+            if (!current.isEmpty() && (current.size() >= maxSize || (long) (current.size() + 1) * length > maxTokens)) {
+                batches.add(current);
+                current = new ArrayList<>();
+            }
+            current.add(ref);
+        }
+        batches.add(current);
+        return batches;
+    }
+
+    private static ExecutorService newWorkerPool(String namePrefix, int threads) {
+        AtomicInteger threadIndex = new AtomicInteger();
+        return Executors.newFixedThreadPool(threads, r -> {
+            Thread thread = new Thread(r, namePrefix + threadIndex.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    private Path persistFile() {
+        String file = properties.getModel().getEmbedding().getQueryCache().getPersistFile();
+        return file == null || file.isBlank() ? null : Paths.get(file);
+    }
+}
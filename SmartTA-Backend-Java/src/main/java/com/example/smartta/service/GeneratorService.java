@@ -24,6 +24,9 @@ public class GeneratorService {
 
     private final SmartTAProperties properties;
     private final ConversationManager conversationManager;
+    private final EmbeddingService embeddingService;
+    private final CollectionManager collectionManager;
+    private final SemanticAnswerCache answerCache;
     
     private ChatLanguageModel llm;
 
@@ -61,13 +64,44 @@ public class GeneratorService {
      */
     public String getAnswer(String query, List<Map<String, String>> retrievedChunks,
                            String contextCode, String sessionId) {
-        
-        log.info("生成答案 - 会话ID: {}, 问题: {}", sessionId, 
-                query.length() > 50 ? query.substring(0, 50) + "..." : query);
+        return getAnswer(query, retrievedChunks, contextCode, sessionId, null);
+    }
 
-        // 获取历史对话
-        // 获取历史对话
+    /**
+     * 生成答案，先查语义答案缓存：检索结果、代码上下文与历史对话相同且问题相近时直接复用已有答案
+     *
+     * @param query           用户问题
+     * @param retrievedChunks 检索到的文档块
+     * @param contextCode     代码上下文
+     * @param sessionId       会话ID
+     * @param collection      检索所用的集合，为null时为默认集合
+     * @return 生成的答案
+     */
+    public String getAnswer(String query, List<Map<String, String>> retrievedChunks,
+                           String contextCode, String sessionId, String collection) {
+        // 检索时已计算过查询向量，此处命中查询向量缓存
+        float[] queryEmbedding = embeddingService.embedQuery(query);
+        long indexVersion = collectionManager.get(collection).getIndexVersion();
+        // 历史对话也进入提示词，历史不同的会话不共享缓存答案
         String historyText = conversationManager.formatHistory(sessionId);
+        String cached = answerCache.lookup(collection, indexVersion, queryEmbedding, retrievedChunks, contextCode,
+                historyText);
+        if (cached != null) {
+            log.info("语义答案缓存命中 - 会话ID: {}", sessionId);
+            conversationManager.append(sessionId, query, cached, contextCode);
+            return cached;
+        }
+
+        String answer = generate(query, retrievedChunks, contextCode, sessionId, historyText);
+        answerCache.put(collection, indexVersion, query, queryEmbedding, retrievedChunks, contextCode, historyText,
+                answer);
+        return answer;
+    }
+
+    private String generate(String query, List<Map<String, String>> retrievedChunks,
+                            String contextCode, String sessionId, String historyText) {
+        log.info("生成答案 - 会话ID: {}, 问题: {}", sessionId, 
+                query.length() > 50 ? query.substring(0, 50) + "..." : query);
 
         // 组合课程资料文本
         String contextText = retrievedChunks.stream()
@@ -2,15 +2,13 @@ package com.example.smartta.service;
 
 import com.example.smartta.config.SmartTAProperties;
 import com.example.smartta.exception.DatabaseException;
+import com.example.smartta.service.vector.DotProductKernels;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
 import org.springframework.context.annotation.Lazy;
 import jakarta.annotation.PostConstruct;
 import java.io.File;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
@@ -35,19 +33,24 @@ public class ModelManager {
     @PostConstruct
     public void initialize() {
         log.info("初始化模型管理器");
+        // 在启动时完成点积内核的选择，打包运行时未带 --add-modules 参数可从日志中发现
+        log.info("向量检索点积内核：{}", DotProductKernels.describe());
         
         try {
             // 嵌入服务已经通过 @PostConstruct 自动初始化
             
             // 尝试加载向量数据库
-            String dbPath = properties.getData().getDbPath();
-            Path indexFile = Paths.get(dbPath, "index.pkl");
-            
-            if (!Files.exists(indexFile)) {
+            if (!vectorStoreService.databaseExists()) {
                 log.warn("向量数据库不存在，尝试自动重建");
                 rebuildDatabaseFromDocuments();
             } else {
                 vectorStoreService.loadDatabase();
+                if (properties.getData().getIngest().isSyncOnStartup()) {
+                    // 同步在后台进行，不推迟服务启动；期间查询使用已加载的索引
+                    Thread sync = new Thread(this::synchronizeDocuments, "document-sync");
+                    sync.setDaemon(true);
+                    sync.start();
+                }
             }
             
             initialized = true;
@@ -90,6 +93,25 @@ public class ModelManager {
         }
     }
 
+    /**
+     * 按文件指纹清单增量同步文档目录，只处理上次入库后新增或变化的文件。
+     * 还没有清单时先按索引中已有的来源建立清单，避免升级后首次启动重新向量化全部文档
+     */
+    private void synchronizeDocuments() {
+        try {
+            List<String> documentFiles = findDocumentFiles();
+            if (documentFiles.isEmpty()) {
+                return;
+            }
+            preprocessorService.seedManifest(documentFiles);
+            log.info("开始增量同步 {} 个文档文件", documentFiles.size());
+            var result = preprocessorService.preprocessDocuments(null, null, documentFiles);
+            log.info("增量同步文档结果：{}", result.get("message"));
+        } catch (Exception e) {
+            log.error("增量同步文档失败", e);
+        }
+    }
+
     /**
      * 查找可用的文档文件
      */
@@ -4,6 +4,8 @@ import com.example.smartta.config.SmartTAProperties;
 import com.example.smartta.model.DocumentChunk;
 import com.example.smartta.service.extractor.DocumentExtractor;
 import com.example.smartta.service.extractor.DocumentExtractorFactory;
+import com.example.smartta.service.ingest.FileManifest;
+import com.example.smartta.service.ingest.IngestionPipeline;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
@@ -15,10 +17,12 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * 文档预处理服务
- * 支持多种文件格式（PDF、DOCX、TXT、PPTX等）的处理和向量化
+ * 支持多种文件格式（PDF、DOCX、TXT、PPTX等）的处理和向量化，
+ * 文件经入库流水线并发完成文本提取、分块、向量化与写入
  */
 @Slf4j
 @Service
@@ -27,9 +31,12 @@ public class PreprocessorService {
 
     private final SmartTAProperties properties;
     private final EmbeddingService embeddingService;
-    private final VectorStoreService vectorStoreService;
+    private final CollectionManager collectionManager;
     private final DocumentExtractorFactory extractorFactory;
 
+    // 每个向量数据库目录一把锁，串行化同一集合的文件指纹清单读写
+    private final Map<Path, Object> manifestLocks = new ConcurrentHashMap<>();
+
     /**
      * 预处理文档文件并增量更新向量数据库
      * 支持多种文件格式：PDF、DOCX、TXT、PPTX
@@ -40,7 +47,24 @@ public class PreprocessorService {
      * @return 处理结果
      */
     public Map<String, Object> preprocessDocuments(MultipartFile file, String directory, List<String> docFiles) {
-        List<DocumentChunk> allDocs = new ArrayList<>();
+        return preprocessDocuments(file, directory, docFiles, null);
+    }
+
+    /**
+     * 预处理文档文件并增量更新指定集合
+     * 目录与文件列表按文件指纹清单增量同步，只处理新增或变化的文件，并移除目录中已删除文件的文档块
+     *
+     * @param file       上传的文件
+     * @param directory  目录路径
+     * @param docFiles   文档文件路径列表
+     * @param collection 集合名称，为null时写入默认集合
+     * @return 处理结果
+     */
+    public Map<String, Object> preprocessDocuments(MultipartFile file, String directory, List<String> docFiles,
+                                                   String collection) {
+        List<File> files = new ArrayList<>();
+        Set<Path> scope = new HashSet<>();
+        Path tempPath = null;
 
         try {
             // 单文件模式（上传）
@@ -59,37 +83,22 @@ public class PreprocessorService {
                 // 若为相对路径，则转换为绝对路径（本地开发或部署都一致可靠）
                 Path dataDirPath = Paths.get(dataDir).toAbsolutePath();
                 Files.createDirectories(dataDirPath);
-                Path tempPath = dataDirPath.resolve(fileName);
+                tempPath = dataDirPath.resolve(fileName);
 
                 log.info("文档将临时保存到：{}", tempPath.toAbsolutePath());
                 file.transferTo(tempPath.toFile());
-
-                // 处理文档
-                List<DocumentChunk> docs = processDocumentFile(tempPath.toFile(), fileName);
-                allDocs.addAll(docs);
-
-                // 删除临时文件
-                Files.deleteIfExists(tempPath);
+                files.add(tempPath.toFile());
             }
             // 文档文件列表模式（自动重建）
             else if (docFiles != null && !docFiles.isEmpty()) {
                 for (String docPath : docFiles) {
-                    try {
-                        File docFile = new File(docPath);
-                        log.info("处理文档：{}", docFile.getName());
-                        
-                        if (!extractorFactory.isSupported(docFile.getName())) {
-                            log.warn("跳过不支持的文件类型：{}", docFile.getName());
-                            continue;
-                        }
-                        
-                        List<DocumentChunk> docs = processDocumentFile(docFile, docFile.getName());
-                        allDocs.addAll(docs);
-                    } catch (Exception e) {
-                        String errorMsg = "处理文档失败：" + docPath + "，原因：" + e.getMessage();
-                        log.error(errorMsg, e);
-                        return createErrorResult(errorMsg);
+                    File docFile = new File(docPath);
+                    if (!extractorFactory.isSupported(docFile.getName())) {
+                        log.warn("跳过不支持的文件类型：{}", docFile.getName());
+                        continue;
                     }
+                    files.add(docFile);
+                    scope.add(docFile.toPath().toAbsolutePath().normalize().getParent());
                 }
             }
             // 目录模式
@@ -106,48 +115,250 @@ public class PreprocessorService {
                 }
 
                 log.info("在目录 {} 中找到 {} 个支持的文档文件", directory, docs.length);
-                
-                for (File doc : docs) {
-                    try {
-                        log.info("处理文档：{}", doc.getName());
-                        List<DocumentChunk> docChunks = processDocumentFile(doc, doc.getName());
-                        allDocs.addAll(docChunks);
-                    } catch (Exception e) {
-                        String errorMsg = "处理文档失败：" + doc.getName() + "，原因：" + e.getMessage();
-                        log.error(errorMsg, e);
-                        return createErrorResult(errorMsg);
-                    }
-                }
+                files.addAll(Arrays.asList(docs));
+                scope.add(dir.toPath().toAbsolutePath().normalize());
             } else {
                 return createErrorResult("未提供有效的输入来源");
             }
 
-            if (allDocs.isEmpty()) {
+            if (files.isEmpty()) {
                 return createErrorResult("未能从文档中提取到有效文本");
             }
+            // 入库期间固定集合，避免被按内存预算卸载
+            try (CollectionManager.Lease lease = collectionManager.acquire(collection)) {
+                VectorStoreService vectorStoreService = lease.store();
+                if (tempPath != null) {
+                    Map<String, Object> result = ingest(files, Map.of(), vectorStoreService, new HashMap<>());
+                    // 上传的文件替换了同名来源的文档块，清单中该来源的指纹不再对应索引内容
+                    forget(vectorStoreService, tempPath.getFileName().toString());
+                    return result;
+                }
+                return synchronize(files, scope, vectorStoreService);
+            }
 
-            // 更新或创建向量数据库
-            String dbPath = properties.getData().getDbPath();
-            Path indexFile = Paths.get(dbPath, "index.pkl");
+        } catch (Exception e) {
+            log.error("预处理文档失败", e);
+            return createErrorResult(e.getMessage());
+        } finally {
+            // 删除临时文件
+            if (tempPath != null) {
+                try {
+                    Files.deleteIfExists(tempPath);
+                } catch (IOException e) {
+                    log.warn("删除临时文件失败：{}", tempPath, e);
+                }
+            }
+        }
+    }
 
-            if (Files.exists(indexFile)) {
-                // 增量更新
-                vectorStoreService.addDocuments(allDocs);
-                vectorStoreService.saveDatabase();
-            } else {
-                // 新建数据库
-                vectorStoreService.createDatabase(allDocs);
+    /**
+     * 按文件指纹清单增量同步
+     * 大小与修改时间均未变的文件直接跳过，其余文件比较内容哈希，只有新增或内容变化的文件进入入库流水线，
+     * 变化文件的旧文档块随写入一并替换；清单中位于同步范围内、本次已不存在的文件删除其文档块。
+     * 文件按规范化的绝对路径识别，不同目录下的同名文件分别记录，来源名见 {@link FileManifest#assignSource}
+     *
+     * @param files 本次提交的文件
+     * @param scope 同步范围内的目录
+     */
+    private Map<String, Object> synchronize(List<File> files, Set<Path> scope,
+                                            VectorStoreService vectorStoreService) throws Exception {
+        Path dbPath = vectorStoreService.dbPath();
+        synchronized (manifestLock(dbPath)) {
+            // 数据库不存在时旧清单已不对应任何内容，全部重新处理
+            FileManifest manifest = vectorStoreService.databaseExists() ? FileManifest.load(dbPath) : new FileManifest();
+            Map<String, FileManifest.Entry> indexed = manifest.getFiles();
+            List<File> changed = new ArrayList<>();
+            Map<File, String> sources = new HashMap<>();
+            Map<String, FileManifest.Entry> fingerprints = new HashMap<>();
+            Set<String> assigned = new HashSet<>();
+            Set<String> present = new HashSet<>();
+            int unchanged = 0;
+            int deletedFiles = 0;
+            int deletedDocs = 0;
+
+            try {
+                for (File file : files) {
+                    Path path = file.toPath().toAbsolutePath().normalize();
+                    String key = path.toString();
+                    if (!present.add(key)) {
+                        continue;
+                    }
+                    long size = Files.size(path);
+                    long lastModified = Files.getLastModifiedTime(path).toMillis();
+
+                    FileManifest.Entry previous = indexed.get(key);
+                    String source = previous != null ? previous.getSource() : manifest.assignSource(path);
+                    if (previous == null && !assigned.add(source)) {
+                        // 本次同步中另一个同名的新文件已使用该文件名
+                        source = key;
+                    }
+                    // 文档块已被删除或被同名上传替换时，清单记录不再有效
+                    boolean tracked = previous != null
+                            && (previous.getChunks() == 0 || vectorStoreService.countDocuments(source) > 0);
+                    if (tracked && previous.getSize() == size && previous.getLastModified() == lastModified) {
+                        unchanged++;
+                        continue;
+                    }
+                    FileManifest.Entry entry = new FileManifest.Entry(
+                            key, source, size, lastModified, FileManifest.sha256(path), 0);
+                    if (tracked && entry.getSha256().equals(previous.getSha256())) {
+                        // 仅修改时间变化，内容未变
+                        entry.setChunks(previous.getChunks());
+                        indexed.put(key, entry);
+                        unchanged++;
+                        continue;
+                    }
+                    changed.add(file);
+                    sources.put(file, source);
+                    fingerprints.put(key, entry);
+                }
+
+                Iterator<Map.Entry<String, FileManifest.Entry>> it = indexed.entrySet().iterator();
+                while (it.hasNext()) {
+                    Map.Entry<String, FileManifest.Entry> entry = it.next();
+                    Path parent = Paths.get(entry.getKey()).getParent();
+                    if (!present.contains(entry.getKey()) && scope.contains(parent)) {
+                        deletedDocs += vectorStoreService.deleteDocuments(entry.getValue().getSource());
+                        deletedFiles++;
+                        it.remove();
+                    }
+                }
+                log.info("增量同步：新增或变化的文件 {} 个，未变化 {} 个，已删除 {} 个",
+                        changed.size(), unchanged, deletedFiles);
+
+                Map<String, Object> result;
+                if (changed.isEmpty()) {
+                    String message = "文档均未变化" + (deletedFiles > 0
+                            ? "，移除已删除文件的文档片段 " + deletedDocs + " 个。"
+                            : "，无需更新。");
+                    log.info(message);
+                    result = createSuccessResult(message, 0);
+                } else {
+                    Map<String, Integer> chunkCounts = new HashMap<>();
+                    result = ingest(changed, sources, vectorStoreService, chunkCounts);
+                    for (Map.Entry<String, FileManifest.Entry> entry : fingerprints.entrySet()) {
+                        entry.getValue().setChunks(chunkCounts.getOrDefault(entry.getValue().getSource(), 0));
+                        indexed.put(entry.getKey(), entry.getValue());
+                    }
+                    String summary = (unchanged > 0 ? "跳过未变化的文件 " + unchanged + " 个。" : "")
+                            + (deletedFiles > 0 ? "移除已删除文件的文档片段 " + deletedDocs + " 个。" : "");
+                    if (!summary.isEmpty()) {
+                        result.put("message", result.get("message") + summary);
+                    }
+                }
+                result.put("unchanged_files", unchanged);
+                result.put("deleted_files", deletedFiles);
+                result.put("deleted_docs", deletedDocs);
+                return result;
+            } finally {
+                // 已完成的删除与指纹更新在失败时同样保存，未写入的文件下次重新处理
+                manifest.save(dbPath);
             }
+        }
+    }
 
-            String message = "向量数据库更新成功，共新增 " + allDocs.size() + " 个文档片段。";
-            log.info(message);
-            
-            return createSuccessResult(message, allDocs.size());
+    /**
+     * 数据库已存在而指纹清单不存在时（如由未记录清单的版本建立），为索引中已有同名来源的文档文件记录当前指纹，
+     * 之后的增量同步只处理此后的变化，不必重新向量化全部文档。
+     * 以文件当前内容为准，建立清单前已修改的文件需要重新上传
+     *
+     * @param docFiles 文档文件路径
+     * @return 记录的文件数；清单已存在或数据库不存在时为 0
+     */
+    public int seedManifest(List<String> docFiles) throws IOException {
+        VectorStoreService vectorStoreService = collectionManager.get(null);
+        Path dbPath = vectorStoreService.dbPath();
+        synchronized (manifestLock(dbPath)) {
+            if (!vectorStoreService.databaseExists() || Files.exists(dbPath.resolve(FileManifest.FILE_NAME))) {
+                return 0;
+            }
+            FileManifest manifest = new FileManifest();
+            for (String docPath : docFiles) {
+                Path path = Paths.get(docPath).toAbsolutePath().normalize();
+                String source = path.getFileName().toString();
+                int chunks = vectorStoreService.countDocuments(source);
+                // 同名文件只有第一个对应索引中的文档块
+                if (chunks == 0 || !source.equals(manifest.assignSource(path))) {
+                    continue;
+                }
+                manifest.getFiles().put(path.toString(), new FileManifest.Entry(path.toString(), source,
+                        Files.size(path), Files.getLastModifiedTime(path).toMillis(), FileManifest.sha256(path), chunks));
+            }
+            manifest.save(dbPath);
+            log.info("按索引中已有的来源建立文件指纹清单，记录 {} 个文件", manifest.getFiles().size());
+            return manifest.getFiles().size();
+        }
+    }
+
+    /**
+     * 从文件指纹清单中移除来源名对应的文件，下次同步时重新处理该文件
+     */
+    private void forget(VectorStoreService vectorStoreService, String source) throws IOException {
+        Path dbPath = vectorStoreService.dbPath();
+        synchronized (manifestLock(dbPath)) {
+            FileManifest manifest = FileManifest.load(dbPath);
+            if (manifest.removeSource(source)) {
+                manifest.save(dbPath);
+            }
+        }
+    }
 
+    private Object manifestLock(Path dbPath) {
+        return manifestLocks.computeIfAbsent(dbPath.toAbsolutePath().normalize(), key -> new Object());
+    }
+
+    /**
+     * 经入库流水线处理文件并写入向量数据库
+     * 文本提取、分块、批量向量化与写入索引分为四个阶段，各阶段由有界队列连接并发执行，
+     * 写入阶段累积一定数量的文档块后写成一个段
+     *
+     * @param sources     各文件文档块的来源名，未列出的文件使用文件名
+     * @param chunkCounts 写入后填入各来源的文档块数量
+     */
+    private Map<String, Object> ingest(List<File> files, Map<File, String> sources,
+                                       VectorStoreService vectorStoreService,
+                                       Map<String, Integer> chunkCounts) throws Exception {
+        SmartTAProperties.IngestConfig config = properties.getData().getIngest();
+        int extractWorkers = config.getExtractWorkers() > 0
+                ? config.getExtractWorkers()
+                : Runtime.getRuntime().availableProcessors();
+        int embedWorkers = config.getEmbedWorkers() > 0
+                ? config.getEmbedWorkers()
+                : properties.getModel().getEmbedding().getBatch().getWorkers();
+        IndexAppender appender = new IndexAppender(vectorStoreService, config.getAppendBatchChunks(), chunkCounts);
+
+        IngestionPipeline.Report report;
+        try {
+            report = IngestionPipeline.<File>source("ingest", config.getQueueCapacity())
+                    .stage("extract", Math.min(extractWorkers, files.size()),
+                            docFile -> extractFile(docFile, sources.getOrDefault(docFile, docFile.getName())),
+                            extracted -> extracted.pages.size())
+                    .stage("chunk", config.getChunkWorkers(), this::splitFile, List::size)
+                    .stage("embed", embedWorkers, this::embedChunks, List::size)
+                    .run(files, "append", appender::append, List::size);
+            appender.flush();
         } catch (Exception e) {
-            log.error("预处理文档失败", e);
-            return createErrorResult(e.getMessage());
+            if (appender.added > 0) {
+                log.warn("入库中断，此前已写入 {} 个文档片段", appender.added);
+            }
+            throw e;
+        }
+
+        for (Map<String, Object> stage : report.toMaps()) {
+            log.info("入库阶段 {}", stage);
         }
+        if (appender.added == 0) {
+            return createErrorResult("未能从文档中提取到有效文本");
+        }
+
+        String message = "向量数据库更新成功，共新增 " + appender.added + " 个文档片段"
+                + (appender.replaced > 0 ? "，替换旧文档片段 " + appender.replaced + " 个。" : "。");
+        log.info("{}，{} 个文件用时 {} ms", message, files.size(), report.elapsedMillis());
+
+        Map<String, Object> result = createSuccessResult(message, appender.added);
+        result.put("elapsed_ms", report.elapsedMillis());
+        result.put("pipeline", report.toMaps());
+        return result;
     }
     
     /**
@@ -160,22 +371,33 @@ public class PreprocessorService {
     }
 
     /**
-     * 处理单个文档文件（支持多种格式）
+     * 提取单个文档文件的文本（支持多种格式）
      */
-    private List<DocumentChunk> processDocumentFile(File docFile, String fileName) throws IOException {
-        List<DocumentChunk> chunks = new ArrayList<>();
-        
+    private ExtractedFile extractFile(File docFile, String source) throws IOException {
+        String fileName = docFile.getName();
+        log.info("处理文档：{}", fileName);
+
         // 获取合适的提取器
         DocumentExtractor extractor = extractorFactory.getExtractor(fileName);
         if (extractor == null) {
             throw new IOException("不支持的文件类型：" + fileName);
         }
-        
-        // 提取文本内容
-        List<DocumentExtractor.PageContent> pages = extractor.extractText(docFile);
+
+        try {
+            return new ExtractedFile(fileName, source, extractor.extractText(docFile));
+        } catch (IOException | RuntimeException e) {
+            throw new IOException("处理文档失败：" + fileName + "，原因：" + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * 将一个文件各页的内容分块
+     */
+    private List<DocumentChunk> splitFile(ExtractedFile file) {
+        List<DocumentChunk> chunks = new ArrayList<>();
         
         // 处理每一页内容
-        for (DocumentExtractor.PageContent page : pages) {
+        for (DocumentExtractor.PageContent page : file.pages) {
             String pageText = page.getContent();
             
             if (pageText != null && !pageText.trim().isEmpty()) {
@@ -183,21 +405,29 @@ public class PreprocessorService {
                 List<String> textChunks = splitText(pageText);
                 
                 for (String chunk : textChunks) {
-                    // 生成嵌入向量
-                    float[] embedding = embeddingService.embed(chunk);
-                    
                     DocumentChunk doc = new DocumentChunk();
-                    doc.setSource(fileName);
+                    doc.setSource(file.source);
                     doc.setPage(String.valueOf(page.getPageNumber()));
                     doc.setContent(chunk);
-                    doc.setEmbedding(embedding);
                     
                     chunks.add(doc);
                 }
             }
         }
 
-        log.info("从 {} 提取了 {} 个文档块", fileName, chunks.size());
+        log.info("从 {} 提取了 {} 个文档块", file.fileName, chunks.size());
+        return chunks;
+    }
+
+    /**
+     * 整个文件的文档块一次批量生成嵌入向量
+     */
+    private List<DocumentChunk> embedChunks(List<DocumentChunk> chunks) {
+        float[][] embeddings = embeddingService.embedAll(
+                chunks.stream().map(DocumentChunk::getContent).toList());
+        for (int i = 0; i < chunks.size(); i++) {
+            chunks.get(i).setEmbedding(embeddings[i]);
+        }
         return chunks;
     }
 
@@ -239,5 +469,65 @@ public class PreprocessorService {
         result.put("added_docs", 0);
         return result;
     }
+
+    /**
+     * 提取阶段的输出：文件名、来源名与各页内容
+     */
+    private static final class ExtractedFile {
+        private final String fileName;
+        private final String source;
+        private final List<DocumentExtractor.PageContent> pages;
+
+        private ExtractedFile(String fileName, String source, List<DocumentExtractor.PageContent> pages) {
+            this.fileName = fileName;
+            this.source = source;
+            this.pages = pages;
+        }
+    }
+
+    /**
+     * 写入阶段：累积各文件的文档块，达到批量后写成一个段。
+     * 数据库不存在时第一批新建数据库，之后的批次按来源替换旧文档块
+     */
+    private static final class IndexAppender {
+        private final VectorStoreService vectorStoreService;
+        private final int batchChunks;
+        private final Map<String, Integer> chunkCounts;
+        private List<DocumentChunk> pending = new ArrayList<>();
+        private int added;
+        private int replaced;
+
+        private IndexAppender(VectorStoreService vectorStoreService, int batchChunks,
+                              Map<String, Integer> chunkCounts) {
+            this.vectorStoreService = vectorStoreService;
+            this.batchChunks = Math.max(batchChunks, 1);
+            this.chunkCounts = chunkCounts;
+        }
+
+        private void append(List<DocumentChunk> chunks) {
+            pending.addAll(chunks);
+            if (pending.size() >= batchChunks) {
+                flush();
+            }
+        }
+
+        private void flush() {
+            if (pending.isEmpty()) {
+                return;
+            }
+            if (vectorStoreService.databaseExists()) {
+                // 增量更新：新文档写成独立的段，同名来源的旧文档块标记删除，重复上传不会产生重复内容
+                replaced += vectorStoreService.replaceDocuments(pending);
+            } else {
+                // 新建数据库
+                vectorStoreService.createDatabase(pending);
+            }
+            added += pending.size();
+            for (DocumentChunk chunk : pending) {
+                chunkCounts.merge(chunk.getSource(), 1, Integer::sum);
+            }
+            pending = new ArrayList<>();
+        }
+    }
 }
 
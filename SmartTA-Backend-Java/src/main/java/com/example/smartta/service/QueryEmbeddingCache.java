@@ -0,0 +1,170 @@
+package com.example.smartta.service;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * 查询向量缓存
+ * 以规范化后的查询文本为键缓存嵌入向量，容量与写入后有效期均有上限，并记录命中统计。
+ * 可保存到文件并在重启后恢复，文件中记录嵌入模型标识，模型变化时旧缓存作废
+ */
+public final class QueryEmbeddingCache {
+
+    private static final int MAGIC = 0x53545145;
+    private static final int VERSION = 1;
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+
+    private final Cache<String, float[]> cache;
+
+    /**
+     * @param maximumSize             最大条数
+     * @param expireAfterWriteMinutes 写入后的有效期（分钟），0 表示不过期
+     */
+    public QueryEmbeddingCache(long maximumSize, long expireAfterWriteMinutes) {
+        CacheBuilder<Object, Object> builder = CacheBuilder.newBuilder()
+                .maximumSize(Math.max(maximumSize, 0))
+                .recordStats();
+        if (expireAfterWriteMinutes > 0) {
+            builder.expireAfterWrite(expireAfterWriteMinutes, TimeUnit.MINUTES);
+        }
+        this.cache = builder.build();
+    }
+
+    /**
+     * 规范化查询文本：去掉首尾空白、合并连续空白并转为小写。
+     * MiniLM 的分词器不区分大小写且按空白切分，规范化前后的文本得到相同的向量
+     */
+    public static String normalize(String text) {
+        return WHITESPACE.matcher(text.trim()).replaceAll(" ").toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * 取缓存的向量，未命中时调用 loader 计算并缓存；同一键的并发请求只计算一次
+     *
+     * @return 向量副本，调用方可以修改
+     */
+    public float[] get(String text, Callable<float[]> loader) {
+        try {
+            return cache.get(normalize(text), loader).clone();
+        } catch (ExecutionException | UncheckedExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException runtime) {
+                throw runtime;
+            }
+            throw new IllegalStateException("查询向量计算失败", cause);
+        }
+    }
+
+    public long size() {
+        return cache.size();
+    }
+
+    public CacheStats stats() {
+        return cache.stats();
+    }
+
+    /**
+     * 将当前全部条目写入文件，先写临时文件再替换
+     *
+     * @param modelId 嵌入模型标识，见 {@link com.example.smartta.service.embedding.BertBatchEncoder#modelId()}
+     */
+    public void save(Path file, String modelId) throws IOException {
+        Map<String, float[]> entries = Map.copyOf(cache.asMap());
+        Path parent = file.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeUTF(modelId);
+            out.writeInt(entries.size());
+            for (Map.Entry<String, float[]> entry : entries.entrySet()) {
+                float[] vector = entry.getValue();
+                writeString(out, entry.getKey());
+                out.writeInt(vector.length);
+                for (float v : vector) {
+                    out.writeFloat(v);
+                }
+            }
+        }
+        try {
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * 从文件恢复条目，文件由其他嵌入模型生成时不加载。恢复的条目重新开始计算有效期
+     *
+     * @param modelId 当前嵌入模型标识
+     * @return 恢复的条数
+     */
+    public int load(Path file, String modelId) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("不是有效的查询向量缓存文件：" + file);
+            }
+            int version = in.readInt();
+            if (version != VERSION) {
+                throw new IOException("不支持的查询向量缓存文件版本：" + version);
+            }
+            if (!in.readUTF().equals(modelId)) {
+                return 0;
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String key = readString(in);
+                float[] vector = new float[in.readInt()];
+                for (int d = 0; d < vector.length; d++) {
+                    vector[d] = in.readFloat();
+                }
+                cache.put(key, vector);
+            }
+            return count;
+        }
+    }
+
+    /**
+     * 键以 UTF-8 字节数加字节写出，不受 writeUTF 65535 字节的长度限制
+     */
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            throw new IOException("查询向量缓存文件中的键长度不合法：" + length);
+        }
+        // readNBytes 按实际读到的数据分配，损坏的长度不会一次申请过大的数组
+        byte[] bytes = in.readNBytes(length);
+        if (bytes.length != length) {
+            throw new EOFException("查询向量缓存文件不完整");
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,141 @@
+package com.example.smartta.service;
+
+import com.example.smartta.config.SmartTAProperties;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * 问答响应缓存
+ * 以规范化问题、代码上下文、会话历史、检索到的文档块 id 与 LLM 配置的哈希为键，
+ * 提示词完全相同的请求直接返回已有答案。按答案占用的内存加权限制容量，
+ * 集合的索引版本变化时清除该集合的全部条目
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class ResponseCache {
+
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+    // 每条缓存除键值字符外的固定开销估算（字节）
+    private static final int ENTRY_OVERHEAD = 128;
+
+    private final SmartTAProperties properties;
+
+    private Cache<String, String> cache;
+    private final Map<String, Long> indexVersions = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    public void init() {
+        SmartTAProperties.ResponseCacheConfig config = properties.getCache().getResponse();
+        CacheBuilder<Object, Object> builder = CacheBuilder.newBuilder()
+                .maximumWeight(Math.max(config.getMaximumWeightMb(), 0) * 1024 * 1024)
+                .recordStats();
+        if (config.getExpireAfterWriteMinutes() > 0) {
+            builder.expireAfterWrite(config.getExpireAfterWriteMinutes(), TimeUnit.MINUTES);
+        }
+        cache = builder
+                .weigher((String key, String answer) -> ENTRY_OVERHEAD + (key.length() + answer.length()) * Character.BYTES)
+                .build();
+    }
+
+    /**
+     * 计算缓存键；缓存关闭时返回 null。
+     * 遇到集合新的索引版本时先清除该集合的旧条目
+     *
+     * @param collection   集合名称，为null时为默认集合
+     * @param indexVersion 检索时集合的索引版本
+     * @param question     用户问题
+     * @param contextCode  代码上下文
+     * @param history      格式化后的会话历史
+     * @param chunks       检索到的文档块
+     */
+    public String key(String collection, long indexVersion, String question, String contextCode,
+                      String history, List<Map<String, String>> chunks) {
+        if (!properties.getCache().getResponse().isEnabled()) {
+            return null;
+        }
+        String scope = collection != null ? collection : CollectionManager.DEFAULT_COLLECTION;
+        Long previous = indexVersions.put(scope, indexVersion);
+        if (previous != null && previous != indexVersion) {
+            String prefix = scope + '\u0000';
+            cache.asMap().keySet().removeIf(key -> key.startsWith(prefix));
+            log.debug("集合 {} 的索引版本由 {} 变为 {}，清除问答响应缓存", scope, previous, indexVersion);
+        }
+
+        List<String> ids = new ArrayList<>(chunks.size());
+        for (Map<String, String> chunk : chunks) {
+            ids.add(String.valueOf(chunk.get("id")));
+        }
+        SmartTAProperties.LlmConfig llm = properties.getModel().getLlm();
+        MessageDigest digest = sha256();
+        update(digest, WHITESPACE.matcher(question.trim()).replaceAll(" "));
+        update(digest, contextCode != null ? contextCode : "");
+        update(digest, history != null ? history : "");
+        // 文档块顺序决定提示词中课程资料的顺序，不做排序
+        update(digest, String.join(",", ids));
+        update(digest, llm.getModelName() + "|" + llm.getTemperature() + "|" + llm.getMaxTokens());
+        return scope + '\u0000' + indexVersion + '\u0000' + HexFormat.of().formatHex(digest.digest());
+    }
+
+    public String get(String key) {
+        return key != null ? cache.getIfPresent(key) : null;
+    }
+
+    public void put(String key, String answer) {
+        if (key != null && answer != null) {
+            cache.put(key, answer);
+        }
+    }
+
+    /**
+     * 条数、估算占用与命中统计
+     */
+    public Map<String, Object> stats() {
+        CacheStats stats = cache.stats();
+        long bytes = 0;
+        for (Map.Entry<String, String> entry : cache.asMap().entrySet()) {
+            bytes += ENTRY_OVERHEAD + (long) (entry.getKey().length() + entry.getValue().length()) * Character.BYTES;
+        }
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("size", cache.size());
+        result.put("weight_kb", bytes / 1024);
+        result.put("hit_count", stats.hitCount());
+        result.put("miss_count", stats.missCount());
+        result.put("hit_rate", stats.hitRate());
+        result.put("eviction_count", stats.evictionCount());
+        return result;
+    }
+
+    private static void update(MessageDigest digest, String part) {
+        byte[] bytes = part.getBytes(StandardCharsets.UTF_8);
+        // 先写入长度，避免相邻字段拼接后产生歧义
+        digest.update(Integer.toString(bytes.length).getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) ':');
+        digest.update(bytes);
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -2,6 +2,8 @@ package com.example.smartta.service;
 
 import com.example.smartta.config.SmartTAProperties;
 import com.example.smartta.model.DocumentChunk;
+import com.example.smartta.model.SearchFilter;
+import com.example.smartta.service.vector.MetadataFilter;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
@@ -22,6 +24,7 @@ public class RetrieverService {
 
     private final SmartTAProperties properties;
     private final ModelManager modelManager;
+    private final CollectionManager collectionManager;
 
     /**
      * 检索上下文
@@ -41,26 +44,104 @@ public class RetrieverService {
      * @return 匹配的文档列表
      */
     public List<Map<String, String>> retrieveContext(String query, Integer topK) {
+        return retrieveContext(query, topK, null);
+    }
+
+    /**
+     * 检索上下文，只在满足过滤条件的文档块中检索
+     *
+     * @param query  查询文本
+     * @param topK   返回的文档数量，为null时使用配置值
+     * @param filter 来源与页码过滤条件，为null时不过滤
+     * @return 匹配的文档列表
+     */
+    public List<Map<String, String>> retrieveContext(String query, Integer topK, SearchFilter filter) {
+        return retrieveContext(query, topK, filter, null);
+    }
+
+    /**
+     * 在指定集合中检索上下文
+     *
+     * @param query      查询文本
+     * @param topK       返回的文档数量，为null时使用配置值
+     * @param filter     来源与页码过滤条件，为null时不过滤
+     * @param collection 集合名称，为null时使用默认集合
+     * @return 匹配的文档列表
+     */
+    public List<Map<String, String>> retrieveContext(String query, Integer topK, SearchFilter filter,
+                                                     String collection) {
         if (topK == null) {
             topK = properties.getRag().getTopK();
         }
 
-        log.debug("检索上下文，查询内容：{}，返回数量：{}", query, topK);
+        log.debug("检索上下文，查询内容：{}，返回数量：{}，过滤条件：{}，集合：{}", query, topK, filter, collection);
 
         // 获取查询向量
-        float[] queryEmbedding = modelManager.getEmbeddingService().embed(query);
+        float[] queryEmbedding = modelManager.getEmbeddingService().embedQuery(query);
 
         // 执行相似度搜索
-        List<DocumentChunk> docs = modelManager.getVectorStore()
-                .similaritySearch(queryEmbedding, topK);
+        List<DocumentChunk> docs = collectionManager.get(collection)
+                .similaritySearch(queryEmbedding, topK, toMetadataFilter(filter));
 
         // 转换为Map格式返回
+        return toContext(docs);
+    }
+
+    /**
+     * 批量检索上下文，全部查询共用一次向量库扫描
+     *
+     * @param queries 查询文本
+     * @param topK    每个查询返回的文档数量，为null时使用配置值
+     * @return 与查询一一对应的匹配文档列表
+     */
+    public List<List<Map<String, String>>> retrieveContextBatch(List<String> queries, Integer topK) {
+        return retrieveContextBatch(queries, topK, null);
+    }
+
+    /**
+     * 在指定集合中批量检索上下文
+     *
+     * @param queries    查询文本
+     * @param topK       每个查询返回的文档数量，为null时使用配置值
+     * @param collection 集合名称，为null时使用默认集合
+     * @return 与查询一一对应的匹配文档列表
+     */
+    public List<List<Map<String, String>>> retrieveContextBatch(List<String> queries, Integer topK,
+                                                                String collection) {
+        if (topK == null) {
+            topK = properties.getRag().getTopK();
+        }
+        if (queries.isEmpty()) {
+            return List.of();
+        }
+
+        log.debug("批量检索上下文，查询数量：{}，返回数量：{}", queries.size(), topK);
+
+        float[][] queryEmbeddings = modelManager.getEmbeddingService().embedAll(queries);
+        List<List<DocumentChunk>> results = collectionManager.get(collection)
+                .similaritySearchBatch(queryEmbeddings, topK);
+        return results.stream()
+                .map(this::toContext)
+                .collect(Collectors.toList());
+    }
+
+    private MetadataFilter toMetadataFilter(SearchFilter filter) {
+        if (filter == null) {
+            return null;
+        }
+        return new MetadataFilter(filter.getSources(), filter.getPageFrom(), filter.getPageTo());
+    }
+
+    private List<Map<String, String>> toContext(List<DocumentChunk> docs) {
         return docs.stream()
                 .map(doc -> {
                     Map<String, String> result = new HashMap<>();
                     result.put("source", doc.getSource() != null ? doc.getSource() : "未知来源");
                     result.put("page", doc.getPage() != null ? doc.getPage() : "?");
                     result.put("content", doc.getContent());
+                    if (doc.getId() != null) {
+                        result.put("id", doc.getId());
+                    }
                     return result;
                 })
                 .collect(Collectors.toList());
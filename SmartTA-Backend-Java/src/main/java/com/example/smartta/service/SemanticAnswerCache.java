@@ -0,0 +1,245 @@
+package com.example.smartta.service;
+
+import com.example.smartta.config.SmartTAProperties;
+import com.example.smartta.service.vector.EmbeddingMatrix;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 语义答案缓存
+ * 以（集合、检索到的文档块 id 集合、代码上下文、历史对话）为桶，桶内保存问题向量与答案。
+ * 新问题落入同一个桶且与某个缓存问题的余弦相似度达到阈值时，直接复用该答案而不调用 LLM。
+ * 文档块 id 由不可变的段名与段内行号组成，相同 id 集合意味着提示词中的课程资料完全相同，
+ * 再加上相同的代码与历史对话，提示词中只有问题本身不同；
+ * 集合的索引版本变化时，该集合的全部条目立即作废
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class SemanticAnswerCache {
+
+    // 同一桶内保留的问题数，超出时淘汰命中最少的一条
+    private static final int BUCKET_CAPACITY = 8;
+    private static final int TOP_ENTRIES = 10;
+
+    private final SmartTAProperties properties;
+
+    private Cache<String, Bucket> buckets;
+    private final Map<String, Long> indexVersions = new ConcurrentHashMap<>();
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+
+    @PostConstruct
+    public void init() {
+        SmartTAProperties.SemanticAnswerCacheConfig config = properties.getCache().getSemanticAnswer();
+        CacheBuilder<Object, Object> builder = CacheBuilder.newBuilder()
+                .maximumSize(Math.max(config.getMaximumSize(), 0))
+                .recordStats();
+        if (config.getExpireAfterWriteMinutes() > 0) {
+            builder.expireAfterWrite(config.getExpireAfterWriteMinutes(), TimeUnit.MINUTES);
+        }
+        buckets = builder.build();
+    }
+
+    /**
+     * 查找可复用的答案
+     *
+     * @param collection     集合名称
+     * @param indexVersion   检索时集合的索引版本
+     * @param queryEmbedding 问题向量
+     * @param chunks         检索到的文档块，须带有 id
+     * @param contextCode    代码上下文
+     * @param history        提示词中的历史对话
+     * @return 命中的答案，未命中时为 null
+     */
+    public String lookup(String collection, long indexVersion, float[] queryEmbedding,
+                         List<Map<String, String>> chunks, String contextCode, String history) {
+        String key = bucketKey(collection, indexVersion, chunks, contextCode, history);
+        if (key == null) {
+            return null;
+        }
+        Bucket bucket = buckets.getIfPresent(key);
+        Entry entry = bucket != null
+                ? bucket.match(EmbeddingMatrix.normalize(queryEmbedding), similarityThreshold())
+                : null;
+        if (entry == null) {
+            missCount.incrementAndGet();
+            return null;
+        }
+        hitCount.incrementAndGet();
+        long hits = entry.hits.incrementAndGet();
+        log.debug("语义答案缓存命中，缓存问题：{}，累计命中 {} 次", entry.question, hits);
+        return entry.answer;
+    }
+
+    /**
+     * 保存新生成的答案
+     */
+    public void put(String collection, long indexVersion, String question, float[] queryEmbedding,
+                    List<Map<String, String>> chunks, String contextCode, String history, String answer) {
+        String key = bucketKey(collection, indexVersion, chunks, contextCode, history);
+        if (key == null) {
+            return;
+        }
+        try {
+            Bucket bucket = buckets.get(key, Bucket::new);
+            bucket.add(new Entry(question, EmbeddingMatrix.normalize(queryEmbedding), answer));
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    /**
+     * 清空全部条目
+     */
+    public void invalidateAll() {
+        buckets.invalidateAll();
+    }
+
+    /**
+     * 命中统计与命中最多的条目
+     */
+    public Map<String, Object> stats() {
+        long hits = hitCount.get();
+        long misses = missCount.get();
+        List<Entry> entries = new ArrayList<>();
+        for (Bucket bucket : buckets.asMap().values()) {
+            entries.addAll(bucket.entries());
+        }
+        List<Map<String, Object>> top = entries.stream()
+                .sorted(Comparator.comparingLong((Entry entry) -> entry.hits.get()).reversed())
+                .limit(TOP_ENTRIES)
+                .map(entry -> {
+                    Map<String, Object> item = new LinkedHashMap<>();
+                    item.put("question", entry.question.length() > 50
+                            ? entry.question.substring(0, 50) + "..." : entry.question);
+                    item.put("hits", entry.hits.get());
+                    return item;
+                })
+                .toList();
+
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("size", entries.size());
+        result.put("hit_count", hits);
+        result.put("miss_count", misses);
+        result.put("hit_rate", hits + misses > 0 ? (double) hits / (hits + misses) : 0.0);
+        result.put("eviction_count", buckets.stats().evictionCount());
+        result.put("top_entries", top);
+        return result;
+    }
+
+    private boolean enabled() {
+        return properties.getCache().getSemanticAnswer().isEnabled();
+    }
+
+    private double similarityThreshold() {
+        return properties.getCache().getSemanticAnswer().getSimilarityThreshold();
+    }
+
+    /**
+     * 桶的键；缓存关闭或有文档块缺少 id 时返回 null。
+     * 遇到集合更新的索引版本时先清除该集合的旧条目
+     */
+    private String bucketKey(String collection, long indexVersion, List<Map<String, String>> chunks,
+                             String contextCode, String history) {
+        if (!enabled()) {
+            return null;
+        }
+        List<String> ids = new ArrayList<>(chunks.size());
+        for (Map<String, String> chunk : chunks) {
+            String id = chunk.get("id");
+            if (id == null) {
+                return null;
+            }
+            ids.add(id);
+        }
+        ids.sort(null);
+
+        String scope = collection != null ? collection : CollectionManager.DEFAULT_COLLECTION;
+        Long previous = indexVersions.put(scope, indexVersion);
+        if (previous != null && previous != indexVersion) {
+            String prefix = scope + '\u0000';
+            buckets.asMap().keySet().removeIf(key -> key.startsWith(prefix));
+            log.debug("集合 {} 的索引版本由 {} 变为 {}，清除语义答案缓存", scope, previous, indexVersion);
+        }
+        return scope + '\u0000' + indexVersion + '\u0000' + String.join(",", ids) + '\u0000' + sha256(contextCode)
+                + '\u0000' + sha256(history);
+    }
+
+    private static String sha256(String text) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            byte[] hash = digest.digest((text != null ? text : "").getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(hash);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static final class Entry {
+        private final String question;
+        private final float[] unitEmbedding;
+        private final String answer;
+        private final AtomicLong hits = new AtomicLong();
+
+        private Entry(String question, float[] unitEmbedding, String answer) {
+            this.question = question;
+            this.unitEmbedding = unitEmbedding;
+            this.answer = answer;
+        }
+    }
+
+    private static final class Bucket {
+        private final List<Entry> entries = new ArrayList<>(BUCKET_CAPACITY);
+
+        synchronized Entry match(float[] unitQuery, double threshold) {
+            Entry best = null;
+            double bestScore = threshold;
+            for (Entry entry : entries) {
+                if (entry.unitEmbedding.length != unitQuery.length) {
+                    continue;
+                }
+                double score = 0;
+                for (int i = 0; i < unitQuery.length; i++) {
+                    score += unitQuery[i] * entry.unitEmbedding[i];
+                }
+                if (score >= bestScore) {
+                    best = entry;
+                    bestScore = score;
+                }
+            }
+            return best;
+        }
+
+        synchronized void add(Entry entry) {
+            if (entries.size() >= BUCKET_CAPACITY) {
+                entries.stream()
+                        .min(Comparator.comparingLong((Entry e) -> e.hits.get()))
+                        .ifPresent(entries::remove);
+            }
+            entries.add(entry);
+        }
+
+        synchronized List<Entry> entries() {
+            return List.copyOf(entries);
+        }
+    }
+}
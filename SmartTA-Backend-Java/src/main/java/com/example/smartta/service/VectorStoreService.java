@@ -3,76 +3,242 @@ package com.example.smartta.service;
 import com.example.smartta.config.SmartTAProperties;
 import com.example.smartta.exception.DatabaseException;
 import com.example.smartta.model.DocumentChunk;
-import lombok.RequiredArgsConstructor;
+import com.example.smartta.service.vector.BinaryMatrix;
+import com.example.smartta.service.vector.ChunkColumns;
+import com.example.smartta.service.vector.ChunkTable;
+import com.example.smartta.service.vector.EmbeddingMatrix;
+import com.example.smartta.service.vector.HnswIndex;
+import com.example.smartta.service.vector.IndexSegment;
+import com.example.smartta.service.vector.Int8Matrix;
+import com.example.smartta.service.vector.IvfPqIndex;
+import com.example.smartta.service.vector.IvfPqModel;
+import com.example.smartta.service.vector.IndexSnapshot;
+import com.example.smartta.service.vector.MetadataFilter;
+import com.example.smartta.service.vector.PartitionedScanner;
+import com.example.smartta.service.vector.RandomProjection;
+import com.example.smartta.service.vector.SearchHits;
+import com.example.smartta.service.vector.SegmentStore;
+import com.example.smartta.service.vector.SegmentedIndex;
+import com.example.smartta.service.vector.TopKSelector;
+import com.example.smartta.service.vector.VectorIndexFile;
+import com.example.smartta.service.vector.VectorPrecision;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
 import java.io.*;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.util.*;
-import java.util.stream.Collectors;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.IntPredicate;
 
 /**
  * 向量存储服务
- * 使用简化的内存向量存储实现
+ * 数据以只追加的段文件存放，每个段内嵌入向量连续存放在映射内存中，文本与元数据按列单独存放。
+ * 检索读取当前发布的不可变快照，无需加锁；写操作串行执行，构造出新快照后原子替换
  */
 @Slf4j
 @Service
-@RequiredArgsConstructor
 public class VectorStoreService {
 
+    private static final String LEGACY_INDEX_FILE = "index.pkl";
+
     private final SmartTAProperties properties;
-    private List<DocumentChunk> documents = new ArrayList<>();
-    private boolean isLoaded = false;
+    private final Path dbPath;
+    private final AtomicReference<IndexSnapshot> snapshot = new AtomicReference<>();
+    private final AtomicBoolean compactionPending = new AtomicBoolean(false);
+    private final AtomicBoolean hnswBuildPending = new AtomicBoolean(false);
+    private final AtomicBoolean ivfPqBuildPending = new AtomicBoolean(false);
+    private SegmentStore segmentStore;
+    private HnswIndex hnswIndex;
+    private IvfPqIndex ivfPqIndex;
+    // 写线程在发布快照前创建，检索线程只读
+    private volatile RandomProjection projection;
+    private PartitionedScanner scanner;
+    // 为 false 时扫描线程池由外部传入，关闭时不随本实例关闭
+    private final boolean ownsScanner;
+    private ExecutorService compactionExecutor;
+    private Cache<String, DocumentChunk> chunkCache;
+    private long generation = 0;
+    // 全局序号整体变化（重新加载、重建、清除已删除行）时递增，已构建的 HNSW 图与 IVF-PQ 倒排列表随之失效
+    private long ordinalEpoch = 0;
+    private boolean closed;
+
+    /**
+     * 默认数据库，位于 smartta.data.db-path
+     */
+    @Autowired
+    public VectorStoreService(SmartTAProperties properties) {
+        this(properties, Paths.get(properties.getData().getDbPath()), null);
+    }
+
+    /**
+     * 位于指定目录的数据库
+     *
+     * @param dbPath  数据库目录
+     * @param scanner 共用的分区并行扫描器，为 null 时按配置自行创建
+     */
+    public VectorStoreService(SmartTAProperties properties, Path dbPath, PartitionedScanner scanner) {
+        this.properties = properties;
+        this.dbPath = dbPath;
+        this.scanner = scanner;
+        this.ownsScanner = scanner == null;
+    }
+
+    @PostConstruct
+    public void init() {
+        segmentStore = new SegmentStore(dbPath);
+
+        SmartTAProperties.ScanConfig scan = properties.getRag().getScan();
+        if (ownsScanner && scan.isParallel()) {
+            int parallelism = scan.getParallelism() > 0
+                    ? scan.getParallelism()
+                    : Runtime.getRuntime().availableProcessors();
+            scanner = new PartitionedScanner(parallelism, scan.getPartitionSize(), "vector-scan");
+            log.info("启用分区并行扫描，线程数：{}，分区大小：{}", parallelism, scan.getPartitionSize());
+        }
+
+        chunkCache = CacheBuilder.newBuilder()
+                .maximumSize(Math.max(properties.getData().getChunkCacheSize(), 0))
+                .build();
+
+        compactionExecutor = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "segment-compactor");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * 分区并行扫描器，未启用并行扫描时为 null
+     */
+    PartitionedScanner scanner() {
+        return scanner;
+    }
+
+    /**
+     * 数据库目录
+     */
+    public Path dbPath() {
+        return dbPath;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (scanner != null && ownsScanner) {
+            scanner.close();
+        }
+        if (compactionExecutor != null) {
+            compactionExecutor.shutdownNow();
+        }
+        synchronized (this) {
+            // 关闭后拒绝写入，已取得快照的检索仍可完成
+            closed = true;
+            if (hnswIndex != null) {
+                try {
+                    hnswIndex.write(hnswFile());
+                } catch (IOException e) {
+                    log.warn("保存 HNSW 图失败：{}", e.getMessage());
+                }
+            }
+            if (ivfPqIndex != null) {
+                try {
+                    ivfPqIndex.write(ivfPqListsFile());
+                } catch (IOException e) {
+                    log.warn("保存 IVF-PQ 倒排列表失败：{}", e.getMessage());
+                }
+            }
+        }
+    }
 
     /**
      * 加载向量数据库
+     * 读取段清单并映射全部段文件；尚无清单时先接管 index.bin 或转换旧版 index.pkl
      */
     public synchronized void loadDatabase() {
-        if (isLoaded) {
+        if (snapshot.get() != null) {
             return;
         }
+        openDatabase();
+    }
 
-        String dbPath = properties.getData().getDbPath();
-        Path indexFile = Paths.get(dbPath, "index.pkl");
-
-        if (!Files.exists(indexFile)) {
-            log.warn("向量数据库不存在：{}", indexFile);
-            throw new DatabaseException("向量数据库不存在：" + indexFile);
+    private void openDatabase() {
+        if (!databaseExists()) {
+            Path manifestFile = segmentStore.directory().resolve(SegmentStore.MANIFEST_FILE);
+            log.warn("向量数据库不存在：{}", manifestFile);
+            throw new DatabaseException("向量数据库不存在：" + manifestFile);
         }
 
         try {
-            log.info("加载向量数据库：{}", indexFile);
-            try (ObjectInputStream ois = new ObjectInputStream(new FileInputStream(indexFile.toFile()))) {
-                documents = (List<DocumentChunk>) ois.readObject();
+            if (!segmentStore.exists()) {
+                if (Files.exists(indexFile())) {
+                    log.info("将单文件索引 {} 转为段存储", indexFile());
+                    segmentStore.adopt(indexFile());
+                } else {
+                    migrateLegacyIndex(legacyIndexFile());
+                }
             }
-            isLoaded = true;
-            log.info("向量数据库加载完成，文档数量：{}", documents.size());
+
+            log.info("加载向量数据库：{}", segmentStore.directory());
+            long start = System.currentTimeMillis();
+            List<IndexSegment> segments = segmentStore.open();
+            segmentStore.removeOrphans();
+            SegmentedIndex index = SegmentedIndex.of(segments);
+            ordinalEpoch++;
+            hnswIndex = openHnswIndex(index);
+            ivfPqIndex = openIvfPqIndex(index);
+            generation++;
+            chunkCache.invalidateAll();
+            IndexSnapshot loaded = publish(index);
+            log.info("向量数据库加载完成，段数量：{}，文档数量：{}，耗时 {} ms",
+                    segments.size(), loaded.size(), System.currentTimeMillis() - start);
         } catch (Exception e) {
             throw new DatabaseException("加载向量数据库失败", e);
         }
+        scheduleCompaction();
     }
 
     /**
-     * 保存向量数据库
+     * 检查磁盘上是否存在向量数据库（含待转换的单文件索引和旧版 index.pkl）
      */
-    public synchronized void saveDatabase() {
-        String dbPath = properties.getData().getDbPath();
-        Path indexFile = Paths.get(dbPath, "index.pkl");
-
-        try {
-            Files.createDirectories(indexFile.getParent());
+    public boolean databaseExists() {
+        return segmentStore.exists() || Files.exists(indexFile()) || Files.exists(legacyIndexFile());
+    }
 
-            log.info("保存向量数据库：{}", indexFile);
-            try (ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(indexFile.toFile()))) {
-                oos.writeObject(documents);
-            }
-            log.info("向量数据库保存完成");
-        } catch (Exception e) {
-            throw new DatabaseException("保存向量数据库失败", e);
+    /**
+     * 将 Java 序列化的旧版 index.pkl 转换为段存储，原文件重命名保留
+     */
+    @SuppressWarnings("unchecked")
+    private void migrateLegacyIndex(Path legacyFile) throws IOException, ClassNotFoundException {
+        log.info("检测到旧版向量数据库 {}，转换为段存储", legacyFile);
+        List<DocumentChunk> documents;
+        try (ObjectInputStream ois = new ObjectInputStream(
+                new BufferedInputStream(new FileInputStream(legacyFile.toFile())))) {
+            documents = (List<DocumentChunk>) ois.readObject();
         }
+        ChunkColumns columns = new ChunkColumns();
+        segmentStore.reset(toMatrix(documents, columns), columns);
+        Files.move(legacyFile, legacyFile.resolveSibling(LEGACY_INDEX_FILE + ".migrated"),
+                StandardCopyOption.REPLACE_EXISTING);
+        log.info("旧版向量数据库转换完成，文档数量：{}", documents.size());
+    }
+
+    private Path indexFile() {
+        return dbPath.resolve(VectorIndexFile.FILE_NAME);
+    }
+
+    private Path legacyIndexFile() {
+        return dbPath.resolve(LEGACY_INDEX_FILE);
     }
 
     /**
@@ -83,84 +249,876 @@ public class VectorStoreService {
      * @return 相似文档列表
      */
     public List<DocumentChunk> similaritySearch(float[] queryEmbedding, int topK) {
-        if (!isLoaded) {
+        return similaritySearch(queryEmbedding, topK, null);
+    }
+
+    /**
+     * 带元数据过滤的相似度搜索
+     * 先由位图索引求出满足条件的行，只对这些行精确打分，不经过 HNSW、IVF-PQ 或粗筛
+     *
+     * @param queryEmbedding 查询向量
+     * @param topK          返回的文档数量
+     * @param filter        过滤条件，为 null 或不含限制时等同于不过滤
+     * @return 相似文档列表
+     */
+    public List<DocumentChunk> similaritySearch(float[] queryEmbedding, int topK, MetadataFilter filter) {
+        IndexSnapshot current = currentSnapshot();
+        SearchHits hits = filter == null || filter.isEmpty()
+                ? searchTopK(current, queryEmbedding, topK)
+                : searchFiltered(current.segments(), queryEmbedding, topK, filter);
+        List<DocumentChunk> results = new ArrayList<>(hits.size());
+        for (int rank = 0; rank < hits.size(); rank++) {
+            results.add(toDocument(current.segments(), hits.ordinal(rank)));
+        }
+        return results;
+    }
+
+    /**
+     * 批量相似度搜索
+     * 精确检索时一次扫描为全部查询打分，每个库内向量在整批中只读取一次；
+     * 启用 HNSW、IVF-PQ 或粗筛时这些结构本身按查询工作，逐个查询检索
+     *
+     * @param queryEmbeddings 查询向量
+     * @param topK            每个查询返回的文档数量
+     * @return 与查询一一对应的相似文档列表
+     */
+    public List<List<DocumentChunk>> similaritySearchBatch(float[][] queryEmbeddings, int topK) {
+        IndexSnapshot current = currentSnapshot();
+        SearchHits[] hits = searchTopKBatch(current, queryEmbeddings, topK);
+        List<List<DocumentChunk>> results = new ArrayList<>(hits.length);
+        for (SearchHits queryHits : hits) {
+            List<DocumentChunk> docs = new ArrayList<>(queryHits.size());
+            for (int rank = 0; rank < queryHits.size(); rank++) {
+                docs.add(toDocument(current.segments(), queryHits.ordinal(rank)));
+            }
+            results.add(docs);
+        }
+        return results;
+    }
+
+    /**
+     * Top-K 检索，仅返回文档序号与相似度，不物化文档对象
+     *
+     * @param queryEmbedding 查询向量
+     * @param topK          返回的文档数量
+     * @return 按相似度降序排列的检索结果
+     */
+    public SearchHits searchTopK(float[] queryEmbedding, int topK) {
+        return searchTopK(currentSnapshot(), queryEmbedding, topK);
+    }
+
+    /**
+     * 当前发布的索引版本号，数据库内容每次变化（含段合并）都会递增；尚未加载时为 0
+     */
+    public long getIndexVersion() {
+        IndexSnapshot current = snapshot.get();
+        return current != null ? current.version() : 0L;
+    }
+
+    /**
+     * 取得当前快照，尚未加载时先加载数据库
+     */
+    private IndexSnapshot currentSnapshot() {
+        IndexSnapshot current = snapshot.get();
+        if (current == null) {
             loadDatabase();
+            current = snapshot.get();
+        }
+        return current;
+    }
+
+    private SearchHits searchTopK(IndexSnapshot current, float[] queryEmbedding, int topK) {
+        SegmentedIndex index = current.segments();
+        if (index.size() == 0 || topK <= 0) {
+            return SearchHits.empty();
+        }
+        if (queryEmbedding.length != index.dimension()) {
+            throw new IllegalArgumentException("向量维度不匹配");
+        }
+
+        // 库内向量已单位化，查询向量单位化一次后余弦相似度即为点积
+        float[] unitQuery = EmbeddingMatrix.normalize(queryEmbedding);
+        // 已删除的行在合并清除前仍留在 HNSW 图与倒排列表中，检索时直接跳过，代价不随删除总数增长
+        IntPredicate deleted = index.deletedCount() > 0 ? index::isDeleted : null;
+        if (current.hnsw() != null) {
+            int efSearch = properties.getRag().getHnsw().getEfSearch();
+            return current.hnsw().search(index, unitQuery, topK, efSearch, deleted);
+        }
+        if (current.ivfPq() != null) {
+            SmartTAProperties.IvfPqConfig config = properties.getRag().getIvfpq();
+            int candidates = Math.max(config.getRescoreCandidates(), topK);
+            return rescore(index, unitQuery, topK,
+                    current.ivfPq().search(unitQuery, candidates, config.getNprobe(), deleted));
+        }
+
+        SmartTAProperties.PrefilterConfig prefilter = properties.getRag().getPrefilter();
+        if ("int8".equalsIgnoreCase(prefilter.getMode())) {
+            Int8Matrix.Query query = Int8Matrix.quantizeQuery(unitQuery);
+            return searchAndRescore(index, unitQuery, topK, prefilter.getRescoreCandidates(),
+                    (from, to, selector) -> index.scanInt8(from, to, query, selector));
+        }
+        if ("binary".equalsIgnoreCase(prefilter.getMode())) {
+            long[] query = BinaryMatrix.quantizeQuery(unitQuery);
+            return searchAndRescore(index, unitQuery, topK, prefilter.getBinaryRescoreCandidates(),
+                    (from, to, selector) -> index.scanBinary(from, to, query, selector));
+        }
+        RandomProjection projection = this.projection;
+        if ("projection".equalsIgnoreCase(prefilter.getMode()) && projection != null
+                && projection.dimension() == index.dimension()) {
+            float[] query = projection.project(unitQuery);
+            return searchAndRescore(index, unitQuery, topK, prefilter.getProjectionRescoreCandidates(),
+                    (from, to, selector) -> index.scanProjected(from, to, projection, query, selector));
+        }
+        return scan(index.size(), topK, (from, to, selector) -> index.scan(from, to, unitQuery, selector));
+    }
+
+    private SearchHits searchFiltered(SegmentedIndex index, float[] queryEmbedding, int topK, MetadataFilter filter) {
+        if (index.size() == 0 || topK <= 0) {
+            return SearchHits.empty();
+        }
+        if (queryEmbedding.length != index.dimension()) {
+            throw new IllegalArgumentException("向量维度不匹配");
+        }
+        BitSet selected = index.select(filter);
+        int matched = selected.cardinality();
+        log.debug("过滤条件 {} 命中 {} / {} 行", filter, matched, index.size());
+        if (matched == 0) {
+            return SearchHits.empty();
         }
 
-        return documents.stream()
-                .map(doc -> {
-                    double similarity = cosineSimilarity(queryEmbedding, doc.getEmbedding());
-                    return new ScoredDocument(doc, similarity);
-                })
-                .sorted(Comparator.comparingDouble(ScoredDocument::getScore).reversed())
-                .limit(topK)
-                .map(ScoredDocument::getDocument)
-                .collect(Collectors.toList());
+        float[] unitQuery = EmbeddingMatrix.normalize(queryEmbedding);
+        PartitionedScanner.RangeScorer scorer =
+                (from, to, selector) -> index.scanSelected(from, to, selected, unitQuery, selector);
+        // 并行与否按实际需要打分的行数决定
+        if (scanner != null && matched >= properties.getRag().getScan().getParallelThreshold()) {
+            return scanner.scan(index.size(), topK, scorer);
+        }
+        TopKSelector selector = new TopKSelector(topK);
+        scorer.score(0, index.size(), selector);
+        return selector.drain();
+    }
+
+    private SearchHits[] searchTopKBatch(IndexSnapshot current, float[][] queryEmbeddings, int topK) {
+        SegmentedIndex index = current.segments();
+        SearchHits[] results = new SearchHits[queryEmbeddings.length];
+        boolean exact = current.hnsw() == null && current.ivfPq() == null
+                && "none".equalsIgnoreCase(properties.getRag().getPrefilter().getMode());
+        if (!exact || index.size() == 0 || topK <= 0) {
+            for (int q = 0; q < queryEmbeddings.length; q++) {
+                results[q] = searchTopK(current, queryEmbeddings[q], topK);
+            }
+            return results;
+        }
+
+        int dimension = index.dimension();
+        float[] unitQueries = new float[queryEmbeddings.length * dimension];
+        for (int q = 0; q < queryEmbeddings.length; q++) {
+            if (queryEmbeddings[q].length != dimension) {
+                throw new IllegalArgumentException("向量维度不匹配");
+            }
+            System.arraycopy(EmbeddingMatrix.normalize(queryEmbeddings[q]), 0, unitQueries, q * dimension, dimension);
+        }
+        PartitionedScanner.BatchRangeScorer scorer =
+                (from, to, selectors) -> index.scanBatch(from, to, unitQueries, selectors);
+        if (scanner != null && index.size() >= properties.getRag().getScan().getParallelThreshold()) {
+            return scanner.scanBatch(index.size(), queryEmbeddings.length, topK, scorer);
+        }
+        TopKSelector[] selectors = PartitionedScanner.selectors(queryEmbeddings.length, topK);
+        scorer.score(0, index.size(), selectors);
+        for (int q = 0; q < selectors.length; q++) {
+            results[q] = selectors[q].drain();
+        }
+        return results;
     }
 
+    /**
+     * 两阶段检索：先以量化副本粗筛出候选，再用 float 向量重新打分取前 topK
+     */
+    private SearchHits searchAndRescore(SegmentedIndex index, float[] unitQuery, int topK, int candidates,
+                                        PartitionedScanner.RangeScorer coarseScorer) {
+        SearchHits coarse = scan(index.size(), Math.max(candidates, topK), coarseScorer);
+        return rescore(index, unitQuery, topK, coarse);
+    }
+
+    /**
+     * 用 float 向量对候选重新打分并剔除已删除的行，取前 topK
+     */
+    private SearchHits rescore(SegmentedIndex index, float[] unitQuery, int topK, SearchHits coarse) {
+        TopKSelector selector = new TopKSelector(topK);
+        for (int rank = 0; rank < coarse.size(); rank++) {
+            int ordinal = coarse.ordinal(rank);
+            if (!index.isDeleted(ordinal)) {
+                selector.offer(ordinal, index.similarity(ordinal, unitQuery));
+            }
+        }
+        return selector.drain();
+    }
+
+    /**
+     * 对 [0, size) 全量打分，规模达到阈值时分区并行
+     */
+    private SearchHits scan(int size, int topK, PartitionedScanner.RangeScorer scorer) {
+        if (scanner != null && size >= properties.getRag().getScan().getParallelThreshold()) {
+            return scanner.scan(size, topK, scorer);
+        }
+        TopKSelector selector = new TopKSelector(topK);
+        scorer.score(0, size, selector);
+        return selector.drain();
+    }
+
+
     /**
      * 添加文档
+     * 新文档写成一个新段并追加到清单，不重写已有数据
      */
     public synchronized void addDocuments(List<DocumentChunk> newDocs) {
-        if (!isLoaded) {
-            loadDatabase();
+        ensureOpen();
+        IndexSnapshot current = currentSnapshot();
+        if (newDocs.isEmpty()) {
+            return;
+        }
+
+        try {
+            ChunkColumns columns = new ChunkColumns();
+            IndexSegment segment = segmentStore.append(toMatrix(newDocs, columns), columns);
+            publish(current.segments().append(segment));
+            log.info("新增段 {}，文档数量：{}", segment.name(), segment.size());
+        } catch (IOException e) {
+            throw new DatabaseException("写入向量数据库段失败", e);
+        }
+        scheduleCompaction();
+    }
+
+    /**
+     * 统计来源尚未删除的文档块数量
+     *
+     * @param source 来源文件名
+     */
+    public int countDocuments(String source) {
+        return currentSnapshot().segments().select(new MetadataFilter(Set.of(source), null, null)).cardinality();
+    }
+
+    /**
+     * 按来源删除文档
+     * 被删除的行记入墓碑位图并随清单持久化，立即对检索不可见；后台合并时再从段文件中清除
+     *
+     * @param source 来源文件名
+     * @return 删除的文档块数量
+     */
+    public synchronized int deleteDocuments(String source) {
+        ensureOpen();
+        IndexSnapshot current = currentSnapshot();
+        Map<String, IndexSegment> updated = tombstone(current.segments(), Set.of(source));
+        if (updated.isEmpty()) {
+            return 0;
         }
-        documents.addAll(newDocs);
+        SegmentedIndex next = current.segments().withTombstones(updated);
+        int deleted = next.deletedCount() - current.segments().deletedCount();
+        try {
+            segmentStore.markDeleted(updated.values());
+        } catch (IOException e) {
+            throw new DatabaseException("写入删除标记失败", e);
+        }
+        publish(next);
+        log.info("删除来源 {} 的文档块 {} 个", source, deleted);
+        scheduleCompaction();
+        return deleted;
+    }
+
+    /**
+     * 按来源替换文档
+     * 新文档所涉及来源的已有文档块全部标记删除，新文档写成一个新段；
+     * 删除标记与新段在同一次清单替换中提交，检索不会看到新旧内容同时存在或同时缺失
+     *
+     * @param newDocs 新文档，按其来源替换已有内容
+     * @return 被替换掉的旧文档块数量
+     */
+    public synchronized int replaceDocuments(List<DocumentChunk> newDocs) {
+        ensureOpen();
+        IndexSnapshot current = currentSnapshot();
+        if (newDocs.isEmpty()) {
+            return 0;
+        }
+        Set<String> sources = new HashSet<>();
+        for (DocumentChunk doc : newDocs) {
+            if (doc.getSource() != null) {
+                sources.add(doc.getSource());
+            }
+        }
+        Map<String, IndexSegment> updated = tombstone(current.segments(), sources);
+        SegmentedIndex remaining = current.segments().withTombstones(updated);
+        int replaced = remaining.deletedCount() - current.segments().deletedCount();
+
+        try {
+            ChunkColumns columns = new ChunkColumns();
+            IndexSegment segment = segmentStore.append(toMatrix(newDocs, columns), columns, updated.values());
+            publish(remaining.append(segment));
+            log.info("新增段 {}，文档数量：{}，替换旧文档块 {} 个", segment.name(), segment.size(), replaced);
+        } catch (IOException e) {
+            throw new DatabaseException("写入向量数据库段失败", e);
+        }
+        scheduleCompaction();
+        return replaced;
+    }
+
+    /**
+     * 为来自给定来源、尚未删除的行打上墓碑
+     *
+     * @return 墓碑有变化的段，按段名索引
+     */
+    private Map<String, IndexSegment> tombstone(SegmentedIndex index, Set<String> sources) {
+        Map<String, IndexSegment> updated = new HashMap<>();
+        if (sources.isEmpty()) {
+            return updated;
+        }
+        MetadataFilter filter = new MetadataFilter(sources, null, null);
+        for (IndexSegment segment : index.segments()) {
+            BitSet rows = segment.metadata().select(filter);
+            rows.andNot(segment.deleted());
+            if (!rows.isEmpty()) {
+                updated.put(segment.name(), segment.withDeleted(rows));
+            }
+        }
+        return updated;
     }
 
     /**
      * 创建新数据库
      */
     public synchronized void createDatabase(List<DocumentChunk> docs) {
-        documents = new ArrayList<>(docs);
-        isLoaded = true;
-        saveDatabase();
+        ensureOpen();
+        try {
+            ChunkColumns columns = new ChunkColumns();
+            IndexSegment segment = segmentStore.reset(toMatrix(docs, columns), columns);
+            ordinalEpoch++;
+            hnswIndex = null;
+            ivfPqIndex = null;
+            // 全量重建后旧模型不再代表数据分布
+            Files.deleteIfExists(hnswFile());
+            Files.deleteIfExists(ivfPqModelFile());
+            Files.deleteIfExists(ivfPqListsFile());
+            generation++;
+            chunkCache.invalidateAll();
+            publish(SegmentedIndex.of(List.of(segment)));
+        } catch (IOException e) {
+            throw new DatabaseException("保存向量数据库失败", e);
+        }
     }
 
     /**
      * 重新加载数据库
      */
     public synchronized void reloadDatabase() {
-        isLoaded = false;
-        loadDatabase();
+        ensureOpen();
+        openDatabase();
+    }
+
+    /**
+     * 当前快照常驻内存的估算字节数：向量矩阵、已生成的粗筛副本与 ANN 结构。
+     * 段文件按需映射，实际驻留取决于页缓存，此处按全部载入估算；尚未加载时为 0
+     */
+    public long residentBytes() {
+        IndexSnapshot current = snapshot.get();
+        if (current == null) {
+            return 0;
+        }
+        SegmentedIndex index = current.segments();
+        long bytes = 0;
+        for (IndexSegment segment : index.segments()) {
+            EmbeddingMatrix matrix = segment.matrix();
+            bytes += (long) matrix.size() * matrix.dimension() * matrix.precision().bytes();
+        }
+        if (current.hnsw() != null) {
+            // 每个节点在底层约有 2m 个 int 邻居
+            bytes += (long) index.size() * 2 * properties.getRag().getHnsw().getM() * Integer.BYTES;
+        }
+        if (current.ivfPq() != null) {
+            // 每行一份 PQ 编码加一个 int 序号
+            bytes += (long) index.size() * (properties.getRag().getIvfpq().getSubspaces() + Integer.BYTES);
+        }
+        return bytes;
+    }
+
+    /**
+     * 是否已关闭（如集合被换出内存），关闭后不再接受写入
+     */
+    public synchronized boolean isClosed() {
+        return closed;
+    }
+
+    private void ensureOpen() {
+        if (closed) {
+            throw new DatabaseException("向量集合已卸载，请重新获取：" + dbPath);
+        }
     }
 
     /**
      * 检查是否已初始化
      */
     public boolean isInitialized() {
-        return isLoaded && !documents.isEmpty();
+        IndexSnapshot current = snapshot.get();
+        return current != null && current.size() > 0;
     }
 
     /**
-     * 计算余弦相似度
+     * 将文档的向量与文本分别写入新矩阵和给定的列存储
      */
-    private double cosineSimilarity(float[] vec1, float[] vec2) {
-        if (vec1.length != vec2.length) {
-            throw new IllegalArgumentException("向量维度不匹配");
+    private EmbeddingMatrix toMatrix(List<DocumentChunk> docs, ChunkColumns columns) {
+        if (docs.isEmpty()) {
+            throw new IllegalArgumentException("文档列表为空");
         }
+        VectorPrecision precision = VectorPrecision.fromName(properties.getData().getVectorPrecision());
+        EmbeddingMatrix matrix = new EmbeddingMatrix(docs.get(0).getEmbedding().length, docs.size(), precision);
+        for (DocumentChunk doc : docs) {
+            matrix.append(doc.getEmbedding());
+            columns.append(doc.getSource(), doc.getPage(), doc.getContent());
+        }
+        return matrix;
+    }
 
-        double dotProduct = 0.0;
-        double norm1 = 0.0;
-        double norm2 = 0.0;
+    /**
+     * 小段数量达到阈值或有段的删除比例达到阈值时提交一次后台合并
+     */
+    private void scheduleCompaction() {
+        SmartTAProperties.CompactionConfig config = properties.getData().getCompaction();
+        if (!config.isEnabled() || compactionExecutor == null) {
+            return;
+        }
+        List<IndexSegment> segments = snapshot.get().segments().segments();
+        long smallSegments = segments.stream()
+                .filter(segment -> segment.size() < config.getSmallSegmentRows())
+                .count();
+        boolean purge = !findPurgeCandidate(segments).isEmpty();
+        if ((smallSegments >= config.getTriggerSegments() || purge) && compactionPending.compareAndSet(false, true)) {
+            compactionExecutor.submit(this::compactSegments);
+        }
+    }
 
-        for (int i = 0; i < vec1.length; i++) {
-            dotProduct += vec1[i] * vec2[i];
-            norm1 += vec1[i] * vec1[i];
-            norm2 += vec2[i] * vec2[i];
+    /**
+     * 合并最长的一串相邻小段；没有可合并的小段时重写一个删除比例达到阈值的段。
+     * 合并文件在锁外写出，只保留未删除的行。被替换段没有删除时全局序号与 HNSW 图均保持有效，
+     * 否则其后各行序号前移，HNSW 图与 IVF-PQ 倒排列表在后台重建
+     */
+    private void compactSegments() {
+        try {
+            List<IndexSegment> run;
+            long expectedGeneration;
+            synchronized (this) {
+                run = findSmallSegmentRun();
+                if (run.size() < 2) {
+                    run = findPurgeCandidate(snapshot.get().segments().segments());
+                }
+                expectedGeneration = generation;
+            }
+            if (run.isEmpty()) {
+                return;
+            }
+
+            long start = System.currentTimeMillis();
+            IndexSegment merged = segmentStore.writeMerged(run);
+            int purged = run.stream().mapToInt(IndexSegment::deletedCount).sum();
+            synchronized (this) {
+                SegmentedIndex index = snapshot.get().segments();
+                List<IndexSegment> current = index.segments();
+                int from = current.indexOf(run.get(0));
+                boolean intact = !closed && expectedGeneration == generation && from >= 0
+                        && from + run.size() <= current.size()
+                        && current.subList(from, from + run.size()).equals(run);
+                if (intact && purged > 0) {
+                    // 序号即将前移，先删除按旧序号保存的 HNSW 图与倒排列表，避免崩溃后加载到错位的数据
+                    Files.deleteIfExists(hnswFile());
+                    Files.deleteIfExists(ivfPqListsFile());
+                }
+                if (!intact || !segmentStore.commitMerge(run, merged)) {
+                    log.info("段合并期间数据库已变更，放弃本次合并");
+                    segmentStore.discard(merged);
+                    return;
+                }
+                if (purged > 0) {
+                    ordinalEpoch++;
+                    hnswIndex = null;
+                    ivfPqIndex = null;
+                }
+                publish(index.replace(from, from + run.size(), merged));
+            }
+            log.info("合并 {} 个段为 {}，保留文档数量：{}，清除已删除文档块 {} 个，耗时 {} ms",
+                    run.size(), merged != null ? merged.name() : "（无）", merged != null ? merged.size() : 0,
+                    purged, System.currentTimeMillis() - start);
+        } catch (Exception e) {
+            log.error("段合并失败", e);
+        } finally {
+            compactionPending.set(false);
         }
+    }
+
+    /**
+     * 删除比例达到阈值的第一个段，没有时返回空列表
+     */
+    private List<IndexSegment> findPurgeCandidate(List<IndexSegment> segments) {
+        double ratio = properties.getData().getCompaction().getPurgeDeletedRatio();
+        for (IndexSegment segment : segments) {
+            if (segment.deletedCount() > 0 && segment.deletedCount() >= segment.size() * ratio) {
+                return List.of(segment);
+            }
+        }
+        return List.of();
+    }
 
-        return dotProduct / (Math.sqrt(norm1) * Math.sqrt(norm2));
+    private List<IndexSegment> findSmallSegmentRun() {
+        int threshold = properties.getData().getCompaction().getSmallSegmentRows();
+        List<IndexSegment> segments = snapshot.get().segments().segments();
+        int bestFrom = 0;
+        int bestLength = 0;
+        int runFrom = 0;
+        for (int i = 0; i <= segments.size(); i++) {
+            if (i < segments.size() && segments.get(i).size() < threshold) {
+                continue;
+            }
+            if (i - runFrom > bestLength) {
+                bestFrom = runFrom;
+                bestLength = i - runFrom;
+            }
+            runFrom = i + 1;
+        }
+        return new ArrayList<>(segments.subList(bestFrom, bestFrom + bestLength));
     }
 
     /**
-     * 带分数的文档
+     * 以给定段集合构造并发布新快照，调用方须持有写锁。
+     * HNSW 新节点在发布前插入完毕，读线程看到的快照总是自洽的
      */
-    @lombok.Data
-    @lombok.AllArgsConstructor
-    private static class ScoredDocument {
-        private DocumentChunk document;
-        private double score;
+    private IndexSnapshot publish(SegmentedIndex index) {
+        updateHnswIndex(index);
+        updateIvfPqIndex(index);
+        // 在写线程中预先量化新段并构建元数据位图，避免首个查询承担这些开销
+        String prefilter = properties.getRag().getPrefilter().getMode();
+        if ("int8".equalsIgnoreCase(prefilter)) {
+            index.segments().forEach(IndexSegment::int8);
+        } else if ("binary".equalsIgnoreCase(prefilter)) {
+            index.segments().forEach(IndexSegment::binary);
+        } else if ("projection".equalsIgnoreCase(prefilter) && index.size() > 0) {
+            RandomProjection current = projectionFor(index.dimension());
+            index.segments().forEach(segment -> segment.projected(current));
+        }
+        index.segments().forEach(IndexSegment::metadata);
+        IndexSnapshot previous = snapshot.get();
+        long version = previous != null ? previous.version() + 1 : 1L;
+        IndexSnapshot next = new IndexSnapshot(version, index,
+                hnswIndex != null ? hnswIndex.reader() : null,
+                ivfPqIndex != null ? ivfPqIndex.reader() : null);
+        snapshot.set(next);
+        return next;
+    }
+
+    /**
+     * 给定维度的随机投影，参数与现有投影一致时直接复用
+     */
+    private RandomProjection projectionFor(int dimension) {
+        SmartTAProperties.PrefilterConfig config = properties.getRag().getPrefilter();
+        int reduced = Math.min(config.getProjectionDimension(), dimension);
+        RandomProjection current = projection;
+        if (current == null || !current.matches(dimension, reduced, config.getProjectionSeed())) {
+            current = RandomProjection.create(dimension, reduced, config.getProjectionSeed());
+            projection = current;
+        }
+        return current;
+    }
+
+    /**
+     * 按配置增量维护 HNSW 索引，新增的行直接插入现有图中。
+     * 尚无可用的图时提交后台全量构建，构建完成前检索走精确扫描
+     */
+    private void updateHnswIndex(SegmentedIndex index) {
+        if (!"hnsw".equalsIgnoreCase(properties.getRag().getSearchEngine()) || index.size() == 0) {
+            return;
+        }
+        if (hnswIndex == null) {
+            scheduleHnswBuild();
+            return;
+        }
+        int before = hnswIndex.size();
+        long start = System.currentTimeMillis();
+        hnswIndex.addPending(index);
+        if (hnswIndex.size() > before) {
+            log.info("HNSW 索引新增 {} 个节点，共 {} 个，耗时 {} ms",
+                    hnswIndex.size() - before, hnswIndex.size(), System.currentTimeMillis() - start);
+        }
     }
-}
 
+    /**
+     * 读取已保存的 HNSW 图；没有图文件、参数不符或图中节点多于当前数据时返回 null，由后台重新构建
+     */
+    private HnswIndex openHnswIndex(SegmentedIndex index) {
+        Path file = hnswFile();
+        if (!"hnsw".equalsIgnoreCase(properties.getRag().getSearchEngine()) || !Files.exists(file)) {
+            return null;
+        }
+        SmartTAProperties.HnswConfig config = properties.getRag().getHnsw();
+        try {
+            long start = System.currentTimeMillis();
+            HnswIndex graph = HnswIndex.read(file, config.getM(), config.getEfConstruction());
+            if (graph.size() <= index.size()) {
+                log.info("加载 HNSW 图：{}，节点数：{}，耗时 {} ms", file, graph.size(), System.currentTimeMillis() - start);
+                return graph;
+            }
+            log.warn("HNSW 图文件节点数 {} 多于当前数据 {}，重新构建", graph.size(), index.size());
+        } catch (IOException e) {
+            log.warn("读取 HNSW 图文件失败，重新构建：{}", e.getMessage());
+        }
+        return null;
+    }
+
+    /**
+     * 提交一次后台 HNSW 全量构建，调用方须持有写锁
+     */
+    private void scheduleHnswBuild() {
+        if (closed || compactionExecutor == null) {
+            return;
+        }
+        if (hnswBuildPending.compareAndSet(false, true)) {
+            compactionExecutor.submit(this::buildHnswIndex);
+        }
+    }
+
+    /**
+     * 在锁外对当前快照全量构建 HNSW 图，期间的写入与检索不受影响。
+     * 构建期间只追加了新段时，交付前把新增的行补插进图；序号整体变化则放弃结果并重新构建
+     */
+    private void buildHnswIndex() {
+        boolean stale = false;
+        try {
+            SegmentedIndex index;
+            long epoch;
+            synchronized (this) {
+                if (closed || hnswIndex != null) {
+                    return;
+                }
+                index = snapshot.get().segments();
+                epoch = ordinalEpoch;
+            }
+
+            SmartTAProperties.HnswConfig config = properties.getRag().getHnsw();
+            HnswIndex built = new HnswIndex(config.getM(), config.getEfConstruction());
+            long start = System.currentTimeMillis();
+            for (int ordinal = 0; ordinal < index.size(); ordinal++) {
+                if (Thread.currentThread().isInterrupted()) {
+                    return;
+                }
+                built.insert(index, ordinal);
+            }
+
+            synchronized (this) {
+                if (closed) {
+                    return;
+                }
+                if (epoch != ordinalEpoch) {
+                    log.info("HNSW 图构建期间数据库序号已变化，放弃本次结果");
+                    stale = true;
+                } else {
+                    hnswIndex = built;
+                    publish(snapshot.get().segments());
+                    // 全量构建代价最高，立即保存；之后的增量在关闭时保存
+                    hnswIndex.write(hnswFile());
+                    log.info("HNSW 图后台构建完成，节点数：{}，耗时 {} ms",
+                            hnswIndex.size(), System.currentTimeMillis() - start);
+                }
+            }
+        } catch (Exception e) {
+            log.error("HNSW 图构建失败", e);
+        } finally {
+            hnswBuildPending.set(false);
+        }
+        if (stale) {
+            synchronized (this) {
+                if (hnswIndex == null) {
+                    scheduleHnswBuild();
+                }
+            }
+        }
+    }
+
+    /**
+     * 按配置增量维护 IVF-PQ 索引，新增的行编码后加入倒排列表。
+     * 尚无可用的倒排列表时提交后台训练与全量编码，完成前检索走精确扫描
+     */
+    private void updateIvfPqIndex(SegmentedIndex index) {
+        if (!"ivfpq".equalsIgnoreCase(properties.getRag().getSearchEngine()) || index.size() == 0) {
+            return;
+        }
+        if (ivfPqIndex == null) {
+            scheduleIvfPqBuild();
+            return;
+        }
+        int before = ivfPqIndex.size();
+        long start = System.currentTimeMillis();
+        ivfPqIndex.addPending(index);
+        if (ivfPqIndex.size() > before) {
+            log.info("IVF-PQ 索引新增 {} 行，共 {} 行，耗时 {} ms",
+                    ivfPqIndex.size() - before, ivfPqIndex.size(), System.currentTimeMillis() - start);
+        }
+    }
+
+    /**
+     * 读取已保存的模型与倒排列表；任一缺失、损坏或与当前数据不匹配时返回 null，由后台重新构建
+     */
+    private IvfPqIndex openIvfPqIndex(SegmentedIndex index) {
+        if (!"ivfpq".equalsIgnoreCase(properties.getRag().getSearchEngine()) || index.size() == 0) {
+            return null;
+        }
+        IvfPqModel model = readIvfPqModel(index);
+        Path listsFile = ivfPqListsFile();
+        if (model == null || !Files.exists(listsFile)) {
+            return null;
+        }
+        try {
+            IvfPqIndex lists = IvfPqIndex.read(listsFile, model);
+            if (lists.size() <= index.size()) {
+                log.info("加载 IVF-PQ 索引：{}，列表数：{}，行数：{}", listsFile, model.lists(), lists.size());
+                return lists;
+            }
+            log.warn("IVF-PQ 列表文件行数 {} 多于当前数据 {}，重新编码", lists.size(), index.size());
+        } catch (IOException e) {
+            log.warn("读取 IVF-PQ 列表文件失败，重新编码：{}", e.getMessage());
+        }
+        return null;
+    }
+
+    /**
+     * 读取已保存的模型；没有模型、模型损坏、维度不符或数据量已远超训练时规模时返回 null，需要重新训练
+     */
+    private IvfPqModel readIvfPqModel(SegmentedIndex index) {
+        Path modelFile = ivfPqModelFile();
+        if (!Files.exists(modelFile)) {
+            return null;
+        }
+        try {
+            IvfPqModel model = IvfPqModel.read(modelFile);
+            double growth = properties.getRag().getIvfpq().getRetrainGrowthFactor();
+            boolean outgrown = (long) index.size() > model.trainedRows() * growth;
+            if (model.dimension() == index.dimension() && !outgrown) {
+                return model;
+            }
+            log.info("IVF-PQ 模型与当前数据不匹配（训练行数 {}，当前行数 {}），重新训练",
+                    model.trainedRows(), index.size());
+        } catch (IOException e) {
+            log.warn("读取 IVF-PQ 模型文件失败，重新训练：{}", e.getMessage());
+        }
+        return null;
+    }
+
+    /**
+     * 提交一次后台 IVF-PQ 构建，调用方须持有写锁
+     */
+    private void scheduleIvfPqBuild() {
+        if (closed || compactionExecutor == null) {
+            return;
+        }
+        if (ivfPqBuildPending.compareAndSet(false, true)) {
+            compactionExecutor.submit(this::buildIvfPqIndex);
+        }
+    }
+
+    /**
+     * 在锁外对当前快照训练模型（已保存的模型仍可用时直接复用）并编码全部行，期间的写入与检索不受影响。
+     * 构建期间只追加了新段时，交付前补充编码新增的行；序号整体变化则放弃结果并重新构建
+     */
+    private void buildIvfPqIndex() {
+        boolean stale = false;
+        try {
+            SegmentedIndex index;
+            long epoch;
+            synchronized (this) {
+                if (closed || ivfPqIndex != null) {
+                    return;
+                }
+                index = snapshot.get().segments();
+                epoch = ordinalEpoch;
+            }
+
+            long start = System.currentTimeMillis();
+            IvfPqModel model = readIvfPqModel(index);
+            boolean trained = model == null;
+            if (trained) {
+                SmartTAProperties.IvfPqConfig config = properties.getRag().getIvfpq();
+                model = IvfPqModel.train(index, config.getLists(), config.getSubspaces(),
+                        config.getTrainingSampleSize(), config.getTrainingIterations());
+                log.info("IVF-PQ 模型训练完成，列表数：{}，子空间数：{}，耗时 {} ms",
+                        model.lists(), model.subspaces(), System.currentTimeMillis() - start);
+            }
+            if (Thread.currentThread().isInterrupted()) {
+                return;
+            }
+            IvfPqIndex built = new IvfPqIndex(model);
+            built.addPending(index);
+
+            synchronized (this) {
+                if (closed) {
+                    return;
+                }
+                if (epoch != ordinalEpoch) {
+                    log.info("IVF-PQ 索引构建期间数据库序号已变化，放弃本次结果");
+                    stale = true;
+                } else {
+                    if (trained) {
+                        // 旧列表按旧模型编码，先删除再保存新模型
+                        Files.deleteIfExists(ivfPqListsFile());
+                        model.write(ivfPqModelFile());
+                    }
+                    ivfPqIndex = built;
+                    publish(snapshot.get().segments());
+                    // 全量编码代价最高，立即保存；之后的增量在关闭时保存
+                    ivfPqIndex.write(ivfPqListsFile());
+                    log.info("IVF-PQ 索引后台构建完成，行数：{}，耗时 {} ms",
+                            ivfPqIndex.size(), System.currentTimeMillis() - start);
+                }
+            }
+        } catch (Exception e) {
+            log.error("IVF-PQ 索引构建失败", e);
+        } finally {
+            ivfPqBuildPending.set(false);
+        }
+        if (stale) {
+            synchronized (this) {
+                if (ivfPqIndex == null) {
+                    scheduleIvfPqBuild();
+                }
+            }
+        }
+    }
+
+    private Path hnswFile() {
+        return dbPath.resolve(HnswIndex.FILE_NAME);
+    }
+
+    private Path ivfPqModelFile() {
+        return dbPath.resolve(IvfPqModel.FILE_NAME);
+    }
+
+    private Path ivfPqListsFile() {
+        return dbPath.resolve(IvfPqIndex.FILE_NAME);
+    }
+
+    /**
+     * 按序号物化文档块
+     * 文本从段文件的映射区按需解码，热点文档块按段名与段内序号缓存；段合并后缓存随新段名自然失效
+     */
+    private DocumentChunk toDocument(SegmentedIndex index, int ordinal) {
+        int segmentIndex = index.segmentOf(ordinal);
+        IndexSegment segment = index.segments().get(segmentIndex);
+        int local = ordinal - index.base(segmentIndex);
+        String key = segment.name() + "#" + local;
+        DocumentChunk cached = chunkCache.getIfPresent(key);
+        if (cached != null) {
+            return cached;
+        }
+        ChunkTable columns = segment.columns();
+        DocumentChunk document = new DocumentChunk(
+                columns.source(local),
+                columns.page(local),
+                columns.content(local),
+                segment.matrix().row(local),
+                key);
+        chunkCache.put(key, document);
+        return document;
+    }
+}
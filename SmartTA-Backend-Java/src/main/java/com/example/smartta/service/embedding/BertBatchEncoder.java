@@ -0,0 +1,235 @@
+package com.example.smartta.service.embedding;
+
+import ai.djl.huggingface.tokenizers.HuggingFaceTokenizer;
+import ai.onnxruntime.OnnxTensor;
+import ai.onnxruntime.OrtEnvironment;
+import ai.onnxruntime.OrtException;
+import ai.onnxruntime.OrtSession;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.LongBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * BERT 双编码器的批量推理
+ * 与 LangChain4j 的 OnnxBertBiEncoder 使用同一个 ONNX 模型与分词器，分词、510 词元分窗与均值池化的规则也相同，
+ * 区别在于多个序列按最长序列补齐后在一次 ONNX 调用中完成，均值池化按注意力掩码排除补齐位置。
+ * 随附的分词器配置截断到 128 个词元，两者对长文本都只编码开头部分，实际只产生一个窗口
+ */
+public final class BertBatchEncoder implements AutoCloseable {
+
+    /**
+     * 每个窗口不含 [CLS] / [SEP] 的最大词元数
+     */
+    public static final int MAX_WINDOW_TOKENS = 510;
+
+    private final OrtEnvironment environment;
+    private final OrtSession session;
+    private final HuggingFaceTokenizer tokenizer;
+    private final boolean needsTokenTypes;
+    private final String modelId;
+
+    private BertBatchEncoder(OrtEnvironment environment, OrtSession session, HuggingFaceTokenizer tokenizer,
+                             String modelId) throws OrtException {
+        this.environment = environment;
+        this.session = session;
+        this.tokenizer = tokenizer;
+        this.needsTokenTypes = session.getInputNames().contains("token_type_ids");
+        this.modelId = modelId;
+    }
+
+    /**
+     * 从类路径加载模型与分词器
+     *
+     * @param modelResource     ONNX 模型资源名
+     * @param tokenizerResource 分词器 JSON 资源名
+     * @param intraOpThreads    单次推理使用的线程数，0 表示由 ONNX Runtime 决定
+     */
+    public static BertBatchEncoder fromClasspath(String modelResource, String tokenizerResource, int intraOpThreads) {
+        ClassLoader loader = Thread.currentThread().getContextClassLoader();
+        try (InputStream model = loader.getResourceAsStream(modelResource);
+             InputStream vocabulary = loader.getResourceAsStream(tokenizerResource)) {
+            if (model == null || vocabulary == null) {
+                throw new IllegalStateException("类路径中缺少嵌入模型资源：" + modelResource + "、" + tokenizerResource);
+            }
+            OrtEnvironment environment = OrtEnvironment.getEnvironment();
+            OrtSession.SessionOptions options = new OrtSession.SessionOptions();
+            if (intraOpThreads > 0) {
+                options.setIntraOpNumThreads(intraOpThreads);
+            }
+            byte[] bytes = model.readAllBytes();
+            OrtSession session = environment.createSession(bytes, options);
+            HuggingFaceTokenizer tokenizer = HuggingFaceTokenizer.newInstance(vocabulary, Map.of("padding", "false"));
+            String modelId = modelResource + "@sha256:" + HexFormat.of().formatHex(
+                    MessageDigest.getInstance("SHA-256").digest(bytes));
+            return new BertBatchEncoder(environment, session, tokenizer, modelId);
+        } catch (IOException | OrtException | NoSuchAlgorithmException e) {
+            throw new IllegalStateException("加载嵌入模型失败：" + modelResource, e);
+        }
+    }
+
+    /**
+     * 实际加载的模型标识：资源名与模型文件的 SHA-256。
+     * 持久化的向量须由同一模型生成，以此校验而不是以配置中的模型名称校验
+     */
+    public String modelId() {
+        return modelId;
+    }
+
+    /**
+     * 将文本切分为不超过 {@link #MAX_WINDOW_TOKENS} 个词元的窗口，窗口边界不落在 ## 子词上。
+     * 每个窗口编码为带 [CLS] / [SEP] 的词元 id 序列，其权重为窗口内的词元数
+     */
+    public List<Window> windows(String text) {
+        List<String> tokens = tokenizer.tokenize(text);
+        List<Window> windows = new ArrayList<>();
+        int last = tokens.size() - 1;
+        int from = 1;
+        while (from < last) {
+            int to = from + MAX_WINDOW_TOKENS;
+            if (to >= last) {
+                to = last;
+            } else {
+                while (to > from + 1 && tokens.get(to).startsWith("##")) {
+                    to--;
+                }
+            }
+            List<String> window = tokens.subList(from, to);
+            long[] ids = tokenizer.encode(tokenizer.buildSentence(window), true, false).getIds();
+            windows.add(new Window(ids, window.size()));
+            from = to;
+        }
+        if (windows.isEmpty()) {
+            windows.add(new Window(tokenizer.encode(text, true, false).getIds(), 1));
+        }
+        return windows;
+    }
+
+    /**
+     * 一次推理编码一批窗口，按最长窗口补齐
+     *
+     * @return 与窗口一一对应的均值池化向量（未单位化）
+     */
+    public float[][] encode(List<Window> batch) {
+        int rows = batch.size();
+        int length = 0;
+        for (Window window : batch) {
+            length = Math.max(length, window.ids.length);
+        }
+        long[] ids = new long[rows * length];
+        long[] mask = new long[rows * length];
+        for (int r = 0; r < rows; r++) {
+            long[] windowIds = batch.get(r).ids;
+            System.arraycopy(windowIds, 0, ids, r * length, windowIds.length);
+            for (int t = 0; t < windowIds.length; t++) {
+                mask[r * length + t] = 1;
+            }
+        }
+        long[] shape = {rows, length};
+
+        try (OnnxTensor idsTensor = OnnxTensor.createTensor(environment, LongBuffer.wrap(ids), shape);
+             OnnxTensor maskTensor = OnnxTensor.createTensor(environment, LongBuffer.wrap(mask), shape);
+             OnnxTensor typeTensor = OnnxTensor.createTensor(environment, LongBuffer.wrap(new long[rows * length]), shape)) {
+            Map<String, OnnxTensor> inputs = new HashMap<>();
+            inputs.put("input_ids", idsTensor);
+            inputs.put("attention_mask", maskTensor);
+            if (needsTokenTypes) {
+                inputs.put("token_type_ids", typeTensor);
+            }
+            try (OrtSession.Result result = session.run(inputs)) {
+                float[][][] hidden = (float[][][]) result.get(0).getValue();
+                float[][] pooled = new float[rows][];
+                for (int r = 0; r < rows; r++) {
+                    pooled[r] = meanPool(hidden[r], batch.get(r).ids.length);
+                }
+                return pooled;
+            }
+        } catch (OrtException e) {
+            throw new IllegalStateException("嵌入模型推理失败", e);
+        }
+    }
+
+    /**
+     * 按窗口权重合并同一文本各窗口的向量并单位化
+     */
+    public static float[] combine(List<float[]> vectors, List<Window> windows) {
+        float[] combined = new float[vectors.get(0).length];
+        if (vectors.size() == 1) {
+            System.arraycopy(vectors.get(0), 0, combined, 0, combined.length);
+        } else {
+            float totalWeight = 0f;
+            for (int w = 0; w < vectors.size(); w++) {
+                float weight = windows.get(w).weight;
+                float[] vector = vectors.get(w);
+                for (int d = 0; d < combined.length; d++) {
+                    combined[d] += vector[d] * weight;
+                }
+                totalWeight += weight;
+            }
+            for (int d = 0; d < combined.length; d++) {
+                combined[d] /= totalWeight;
+            }
+        }
+        double norm = 0;
+        for (float v : combined) {
+            norm += v * v;
+        }
+        float scale = (float) (1.0 / Math.sqrt(norm));
+        for (int d = 0; d < combined.length; d++) {
+            combined[d] *= scale;
+        }
+        return combined;
+    }
+
+    @Override
+    public void close() {
+        try {
+            session.close();
+        } catch (OrtException e) {
+            throw new IllegalStateException("关闭嵌入模型失败", e);
+        } finally {
+            tokenizer.close();
+        }
+    }
+
+    private static float[] meanPool(float[][] tokens, int length) {
+        float[] pooled = new float[tokens[0].length];
+        for (int t = 0; t < length; t++) {
+            float[] token = tokens[t];
+            for (int d = 0; d < pooled.length; d++) {
+                pooled[d] += token[d];
+            }
+        }
+        for (int d = 0; d < pooled.length; d++) {
+            pooled[d] /= length;
+        }
+        return pooled;
+    }
+
+    /**
+     * 一个编码窗口
+     */
+    public static final class Window {
+        private final long[] ids;
+        private final int weight;
+
+        private Window(long[] ids, int weight) {
+            this.ids = ids;
+            this.weight = weight;
+        }
+
+        /**
+         * 含 [CLS] / [SEP] 的序列长度
+         */
+        public int length() {
+            return ids.length;
+        }
+    }
+}
@@ -0,0 +1,170 @@
+package com.example.smartta.service.embedding;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * 跨请求微批处理器
+ * 各调用方提交单个输入并取得各自的 Future；调度线程从第一个到达的输入起最多等待 maxWait，
+ * 或凑满 maxBatchSize 个输入后，把这一批交给执行器一次处理，再将结果逐个交还给对应的 Future。
+ * 同时处理中的批次数不超过 maxConcurrentBatches，执行器忙时输入在队列中累积，负载越高批次越大
+ *
+ * @param <I> 输入类型
+ * @param <O> 输出类型
+ */
+public final class MicroBatcher<I, O> implements AutoCloseable {
+
+    private final Function<List<I>, List<O>> processor;
+    private final Executor executor;
+    private final int maxBatchSize;
+    private final long maxWaitNanos;
+    private final Semaphore slots;
+    private final BlockingQueue<Request<I, O>> queue = new LinkedBlockingQueue<>();
+    private final Thread dispatcher;
+    private final AtomicLong batchCount = new AtomicLong();
+    private final AtomicLong itemCount = new AtomicLong();
+    private volatile boolean closed;
+
+    /**
+     * @param name         调度线程名
+     * @param processor    批处理函数，返回与输入一一对应的输出
+     * @param executor     执行批处理的线程池
+     * @param maxBatchSize 每批最多的输入数
+     * @param maxWaitMicros 第一个输入到达后最多等待的微秒数
+     * @param maxConcurrentBatches 同时处理中的最多批次数，一般等于执行器的线程数
+     */
+    public MicroBatcher(String name, Function<List<I>, List<O>> processor, Executor executor,
+                        int maxBatchSize, long maxWaitMicros, int maxConcurrentBatches) {
+        this.processor = processor;
+        this.executor = executor;
+        this.maxBatchSize = Math.max(maxBatchSize, 1);
+        this.maxWaitNanos = TimeUnit.MICROSECONDS.toNanos(Math.max(maxWaitMicros, 0));
+        this.slots = new Semaphore(Math.max(maxConcurrentBatches, 1));
+        this.dispatcher = new Thread(this::dispatch, name);
+        this.dispatcher.setDaemon(true);
+        this.dispatcher.start();
+    }
+
+    /**
+     * 提交一个输入
+     *
+     * @return 该输入的处理结果
+     */
+    public CompletableFuture<O> submit(I input) {
+        CompletableFuture<O> future = new CompletableFuture<>();
+        if (closed) {
+            future.completeExceptionally(new IllegalStateException("微批处理器已关闭"));
+            return future;
+        }
+        queue.add(new Request<>(input, future));
+        if (closed) {
+            // 与 close 并发时，确保入队后未被调度的输入不会一直等待
+            failPending();
+        }
+        return future;
+    }
+
+    /**
+     * 已处理的批次数
+     */
+    public long batchCount() {
+        return batchCount.get();
+    }
+
+    /**
+     * 已处理的输入数
+     */
+    public long itemCount() {
+        return itemCount.get();
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        dispatcher.interrupt();
+        failPending();
+    }
+
+    private void failPending() {
+        List<Request<I, O>> pending = new ArrayList<>();
+        queue.drainTo(pending);
+        fail(pending, new IllegalStateException("微批处理器已关闭"));
+    }
+
+    private void dispatch() {
+        while (!closed) {
+            List<Request<I, O>> batch = new ArrayList<>(maxBatchSize);
+            try {
+                // 等到有空闲的处理槽位再组批，处理期间到达的输入留在队列中并入下一批
+                slots.acquire();
+                batch.add(queue.take());
+                long deadline = System.nanoTime() + maxWaitNanos;
+                while (batch.size() < maxBatchSize) {
+                    long remaining = deadline - System.nanoTime();
+                    Request<I, O> next = remaining > 0 ? queue.poll(remaining, TimeUnit.NANOSECONDS) : queue.poll();
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+            } catch (InterruptedException e) {
+                fail(batch, new IllegalStateException("微批处理器已关闭"));
+                return;
+            }
+            try {
+                executor.execute(() -> {
+                    try {
+                        process(batch);
+                    } finally {
+                        slots.release();
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                slots.release();
+                fail(batch, e);
+            }
+        }
+    }
+
+    private void process(List<Request<I, O>> batch) {
+        try {
+            List<I> inputs = new ArrayList<>(batch.size());
+            for (Request<I, O> request : batch) {
+                inputs.add(request.input);
+            }
+            List<O> outputs = processor.apply(inputs);
+            batchCount.incrementAndGet();
+            itemCount.addAndGet(batch.size());
+            for (int i = 0; i < batch.size(); i++) {
+                batch.get(i).future.complete(outputs.get(i));
+            }
+        } catch (Throwable e) {
+            fail(batch, e);
+        }
+    }
+
+    private static <I, O> void fail(List<Request<I, O>> batch, Throwable cause) {
+        for (Request<I, O> request : batch) {
+            request.future.completeExceptionally(cause);
+        }
+    }
+
+    private static final class Request<I, O> {
+        private final I input;
+        private final CompletableFuture<O> future;
+
+        private Request(I input, CompletableFuture<O> future) {
+            this.input = input;
+            this.future = future;
+        }
+    }
+}
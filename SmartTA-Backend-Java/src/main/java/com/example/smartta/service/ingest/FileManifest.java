@@ -0,0 +1,116 @@
+package com.example.smartta.service.ingest;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * 文件指纹清单
+ * 按规范化的绝对路径记录已入库文件的来源名、大小、修改时间与内容哈希，与向量数据库保存在同一目录。
+ * 重新提交目录时据此只处理新增或变化的文件，并找出已从目录中删除的文件。
+ * 来源名是文档块在索引中的 source，通常为文件名；不同目录下的同名文件中，后入库的一个以绝对路径作为来源名
+ */
+@Data
+@NoArgsConstructor
+public class FileManifest {
+
+    public static final String FILE_NAME = "file_manifest.json";
+    private static final ObjectMapper MAPPER = new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT);
+
+    private int version = 1;
+    private Map<String, Entry> files = new TreeMap<>(); // 键为规范化的绝对路径
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class Entry {
+        private String path; // 规范化的绝对路径
+        private String source; // 文档块的来源名
+        private long size;
+        private long lastModified;
+        private String sha256;
+        private int chunks; // 入库的文档块数量
+    }
+
+    /**
+     * 读取目录中的清单，不存在时返回空清单
+     */
+    public static FileManifest load(Path directory) throws IOException {
+        Path file = directory.resolve(FILE_NAME);
+        if (!Files.exists(file)) {
+            return new FileManifest();
+        }
+        return MAPPER.readValue(file.toFile(), FileManifest.class);
+    }
+
+    /**
+     * 为新文件分配来源名：文件名未被清单中其他路径使用时用文件名，否则用路径本身
+     *
+     * @param path 规范化的绝对路径
+     */
+    public String assignSource(Path path) {
+        String name = path.getFileName().toString();
+        String key = path.toString();
+        for (Entry entry : files.values()) {
+            if (name.equals(entry.getSource()) && !key.equals(entry.getPath())) {
+                return key;
+            }
+        }
+        return name;
+    }
+
+    /**
+     * 移除来源名对应的条目
+     *
+     * @return 是否有条目被移除
+     */
+    public boolean removeSource(String source) {
+        return files.values().removeIf(entry -> source.equals(entry.getSource()));
+    }
+
+    /**
+     * 写入目录，先写临时文件再原子替换
+     */
+    public void save(Path directory) throws IOException {
+        Files.createDirectories(directory);
+        Path target = directory.resolve(FILE_NAME);
+        Path temp = directory.resolve(FILE_NAME + ".tmp");
+        MAPPER.writeValue(temp.toFile(), this);
+        try {
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * 文件内容的 SHA-256
+     */
+    public static String sha256(Path file) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        try (InputStream in = new DigestInputStream(Files.newInputStream(file), digest)) {
+            in.transferTo(OutputStream.nullOutputStream());
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+}
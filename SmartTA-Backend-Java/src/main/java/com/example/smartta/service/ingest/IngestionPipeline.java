@@ -0,0 +1,327 @@
+package com.example.smartta.service.ingest;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.ToIntFunction;
+
+/**
+ * 分阶段的入库流水线
+ * 各阶段由有界队列首尾相连，每个阶段有独立的工作线程数；下游处理不过来时上游阻塞在队列上（背压），
+ * 在途数据量不超过 队列容量 × 阶段数。最后的写入阶段固定单线程，按到达顺序依次消费。
+ * 任一阶段失败时全部阶段停止，run 抛出第一个异常
+ *
+ * @param <S> 输入类型
+ * @param <T> 当前最后一个阶段的输出类型
+ */
+public final class IngestionPipeline<S, T> {
+
+    // 上游全部处理完的结束标记，由同阶段的工作线程依次传递
+    private static final Object END = new Object();
+    private static final long POLL_MILLIS = 100;
+
+    private final String name;
+    private final int queueCapacity;
+    private final List<StageSpec> stages;
+
+    private IngestionPipeline(String name, int queueCapacity, List<StageSpec> stages) {
+        this.name = name;
+        this.queueCapacity = queueCapacity;
+        this.stages = stages;
+    }
+
+    /**
+     * @param name          流水线名称，用作线程名前缀
+     * @param queueCapacity 每个阶段输入队列的容量
+     */
+    public static <S> IngestionPipeline<S, S> source(String name, int queueCapacity) {
+        return new IngestionPipeline<>(name, Math.max(queueCapacity, 1), List.of());
+    }
+
+    /**
+     * 追加一个处理阶段
+     *
+     * @param stageName 阶段名称
+     * @param workers   工作线程数
+     * @param function  处理函数，返回null时该条数据不再向下游传递
+     * @param units     统计用的产出单位数（如页数、文档块数）
+     */
+    public <R> IngestionPipeline<S, R> stage(String stageName, int workers,
+                                             StageFunction<? super T, ? extends R> function,
+                                             ToIntFunction<? super R> units) {
+        List<StageSpec> next = new ArrayList<>(stages);
+        next.add(new StageSpec(stageName, Math.max(workers, 1), function, units));
+        return new IngestionPipeline<>(name, queueCapacity, next);
+    }
+
+    /**
+     * 运行流水线直到全部输入处理完毕
+     *
+     * @param inputs   输入
+     * @param sinkName 写入阶段名称
+     * @param sink     写入阶段，单线程调用
+     * @param units    统计用的写入单位数
+     * @return 各阶段的吞吐统计，写入阶段在最后
+     * @throws Exception 任一阶段抛出的第一个异常
+     */
+    @SuppressWarnings("unchecked")
+    public Report run(Collection<? extends S> inputs, String sinkName, StageConsumer<? super T> sink,
+                      ToIntFunction<? super T> units) throws Exception {
+        List<StageSpec> all = new ArrayList<>(stages);
+        all.add(new StageSpec(sinkName, 1, item -> {
+            ((StageConsumer<Object>) sink).accept(item);
+            return item;
+        }, units));
+
+        Run run = new Run(all.size());
+        List<Thread> threads = new ArrayList<>();
+        for (int s = 0; s < all.size(); s++) {
+            StageSpec spec = all.get(s);
+            BlockingQueue<Object> in = run.queues.get(s);
+            BlockingQueue<Object> out = s + 1 < all.size() ? run.queues.get(s + 1) : null;
+            StageMetrics metrics = run.metrics.get(s);
+            AtomicInteger remaining = new AtomicInteger(spec.workers);
+            for (int w = 1; w <= spec.workers; w++) {
+                Thread thread = new Thread(() -> work(run, spec, in, out, metrics, remaining),
+                        name + "-" + spec.name + "-" + w);
+                thread.setDaemon(true);
+                threads.add(thread);
+            }
+            metrics.stage = spec.name;
+            metrics.workers = spec.workers;
+        }
+        threads.forEach(Thread::start);
+
+        try {
+            BlockingQueue<Object> first = run.queues.get(0);
+            for (S input : inputs) {
+                if (!run.put(first, input)) {
+                    break;
+                }
+            }
+            run.put(first, END);
+            for (Thread thread : threads) {
+                thread.join();
+            }
+        } catch (InterruptedException e) {
+            run.fail(e);
+            threads.forEach(Thread::interrupt);
+            Thread.currentThread().interrupt();
+        }
+
+        Throwable failure = run.failure.get();
+        if (failure instanceof Exception exception) {
+            throw exception;
+        }
+        if (failure instanceof Error error) {
+            throw error;
+        }
+        return new Report(System.nanoTime() - run.startNanos, run.metrics);
+    }
+
+    @SuppressWarnings("unchecked")
+    private void work(Run run, StageSpec spec, BlockingQueue<Object> in, BlockingQueue<Object> out,
+                      StageMetrics metrics, AtomicInteger remaining) {
+        try {
+            while (true) {
+                long waitStart = System.nanoTime();
+                Object item = run.take(in);
+                metrics.waitInputNanos.addAndGet(System.nanoTime() - waitStart);
+                if (item == null) {
+                    return;
+                }
+                if (item == END) {
+                    // 交给同阶段的其他工作线程，最后一个退出的线程通知下游
+                    run.put(in, END);
+                    if (remaining.decrementAndGet() == 0) {
+                        metrics.endNanos = System.nanoTime();
+                        if (out != null) {
+                            run.put(out, END);
+                        }
+                    }
+                    return;
+                }
+
+                long busyStart = System.nanoTime();
+                Object result = spec.function.apply(item);
+                metrics.busyNanos.addAndGet(System.nanoTime() - busyStart);
+                metrics.items.incrementAndGet();
+                if (result == null) {
+                    continue;
+                }
+                if (spec.units != null) {
+                    metrics.units.addAndGet(spec.units.applyAsInt(result));
+                }
+                if (out == null) {
+                    continue;
+                }
+                long blockStart = System.nanoTime();
+                boolean accepted = run.put(out, result);
+                metrics.waitOutputNanos.addAndGet(System.nanoTime() - blockStart);
+                if (!accepted) {
+                    return;
+                }
+            }
+        } catch (Throwable e) {
+            run.fail(e);
+        }
+    }
+
+    /**
+     * 阶段处理函数
+     */
+    @FunctionalInterface
+    public interface StageFunction<I, O> {
+        O apply(I input) throws Exception;
+    }
+
+    /**
+     * 写入阶段
+     */
+    @FunctionalInterface
+    public interface StageConsumer<I> {
+        void accept(I input) throws Exception;
+    }
+
+    private static final class StageSpec {
+        private final String name;
+        private final int workers;
+        @SuppressWarnings("rawtypes")
+        private final StageFunction function;
+        @SuppressWarnings("rawtypes")
+        private final ToIntFunction units;
+
+        private StageSpec(String name, int workers, StageFunction<?, ?> function, ToIntFunction<?> units) {
+            this.name = name;
+            this.workers = workers;
+            this.function = function;
+            this.units = units;
+        }
+    }
+
+    /**
+     * 一次运行的队列、统计与失败状态
+     */
+    private final class Run {
+        private final List<BlockingQueue<Object>> queues = new ArrayList<>();
+        private final List<StageMetrics> metrics = new ArrayList<>();
+        private final AtomicReference<Throwable> failure = new AtomicReference<>();
+        private final long startNanos = System.nanoTime();
+
+        private Run(int stageCount) {
+            for (int s = 0; s < stageCount; s++) {
+                queues.add(new ArrayBlockingQueue<>(queueCapacity));
+                metrics.add(new StageMetrics(startNanos));
+            }
+        }
+
+        private void fail(Throwable e) {
+            failure.compareAndSet(null, e);
+        }
+
+        /**
+         * 放入队列，队列满时阻塞；流水线已失败时放弃并返回 false
+         */
+        private boolean put(BlockingQueue<Object> queue, Object item) throws InterruptedException {
+            while (failure.get() == null) {
+                if (queue.offer(item, POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * 从队列取出，队列空时阻塞；流水线已失败时返回 null
+         */
+        private Object take(BlockingQueue<Object> queue) throws InterruptedException {
+            while (failure.get() == null) {
+                Object item = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                if (item != null) {
+                    return item;
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * 单个阶段的吞吐统计
+     * 等待输入的时间长说明上游是瓶颈，等待输出的时间长说明下游是瓶颈
+     */
+    public static final class StageMetrics {
+        private final long startNanos;
+        private String stage;
+        private int workers;
+        private final AtomicLong items = new AtomicLong();
+        private final AtomicLong units = new AtomicLong();
+        private final AtomicLong busyNanos = new AtomicLong();
+        private final AtomicLong waitInputNanos = new AtomicLong();
+        private final AtomicLong waitOutputNanos = new AtomicLong();
+        private volatile long endNanos;
+
+        private StageMetrics(long startNanos) {
+            this.startNanos = startNanos;
+        }
+
+        public String stage() {
+            return stage;
+        }
+
+        public long items() {
+            return items.get();
+        }
+
+        public Map<String, Object> toMap() {
+            double seconds = Math.max(endNanos - startNanos, 1) / 1e9;
+            double busySeconds = busyNanos.get() / 1e9;
+            Map<String, Object> result = new LinkedHashMap<>();
+            result.put("stage", stage);
+            result.put("workers", workers);
+            result.put("items", items.get());
+            result.put("units", units.get());
+            result.put("elapsed_ms", Math.round(seconds * 1000));
+            result.put("busy_ms", Math.round(busySeconds * 1000));
+            result.put("wait_input_ms", TimeUnit.NANOSECONDS.toMillis(waitInputNanos.get()));
+            result.put("wait_output_ms", TimeUnit.NANOSECONDS.toMillis(waitOutputNanos.get()));
+            result.put("items_per_second", items.get() / seconds);
+            result.put("units_per_second", units.get() / seconds);
+            // 工作线程处于处理状态的时间占比
+            result.put("utilization", busySeconds / (seconds * workers));
+            return result;
+        }
+    }
+
+    /**
+     * 一次运行的结果
+     */
+    public static final class Report {
+        private final long elapsedNanos;
+        private final List<StageMetrics> stages;
+
+        private Report(long elapsedNanos, List<StageMetrics> stages) {
+            this.elapsedNanos = elapsedNanos;
+            this.stages = List.copyOf(stages);
+        }
+
+        public long elapsedMillis() {
+            return TimeUnit.NANOSECONDS.toMillis(elapsedNanos);
+        }
+
+        public List<StageMetrics> stages() {
+            return stages;
+        }
+
+        public List<Map<String, Object>> toMaps() {
+            return stages.stream().map(StageMetrics::toMap).toList();
+        }
+    }
+}
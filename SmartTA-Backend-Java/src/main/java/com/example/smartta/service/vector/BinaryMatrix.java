@@ -0,0 +1,75 @@
+package com.example.smartta.service.vector;
+
+/**
+ * 二值量化矩阵
+ * 每个维度只保留符号位，按 64 位一组打包进 long 数组，384 维向量仅占 48 字节。
+ * 以异或后的汇总位数（汉明距离）近似相似度，只用于粗筛，最终排序仍以 float 向量重新打分
+ */
+public final class BinaryMatrix {
+
+    private final int dimension;
+    private final int size;
+    private final int words;
+    private final long[] bits;
+
+    private BinaryMatrix(int dimension, int size, long[] bits) {
+        this.dimension = dimension;
+        this.size = size;
+        this.words = wordsFor(dimension);
+        this.bits = bits;
+    }
+
+    /**
+     * 对嵌入矩阵的全部行取符号位
+     */
+    public static BinaryMatrix quantize(EmbeddingMatrix matrix) {
+        int dimension = matrix.dimension();
+        int size = matrix.size();
+        int words = wordsFor(dimension);
+        if ((long) words * size > Integer.MAX_VALUE) {
+            throw new IllegalStateException("二值矩阵超出单个数组上限");
+        }
+        long[] bits = new long[words * size];
+        for (int row = 0; row < size; row++) {
+            encode(matrix.row(row), bits, row * words);
+        }
+        return new BinaryMatrix(dimension, size, bits);
+    }
+
+    /**
+     * 对查询向量取符号位，同一查询可在多个段之间复用
+     */
+    public static long[] quantizeQuery(float[] unitQuery) {
+        long[] query = new long[wordsFor(unitQuery.length)];
+        encode(unitQuery, query, 0);
+        return query;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * 近似相似度：符号一致的维度数减去不一致的维度数，取值范围 [-dimension, dimension]
+     */
+    public float similarity(int ordinal, long[] query) {
+        int offset = ordinal * words;
+        int distance = 0;
+        for (int w = 0; w < words; w++) {
+            distance += Long.bitCount(bits[offset + w] ^ query[w]);
+        }
+        return dimension - 2 * distance;
+    }
+
+    private static void encode(float[] vector, long[] target, int offset) {
+        for (int i = 0; i < vector.length; i++) {
+            if (vector[i] > 0f) {
+                target[offset + (i >>> 6)] |= 1L << (i & 63);
+            }
+        }
+    }
+
+    private static int wordsFor(int dimension) {
+        return (dimension + Long.SIZE - 1) / Long.SIZE;
+    }
+}
@@ -0,0 +1,56 @@
+package com.example.smartta.service.vector;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 文档块列存储
+ * 将来源、页码和正文按列分开存放在堆内，用于构造待写入的段
+ */
+public final class ChunkColumns implements ChunkTable {
+
+    private final List<String> sources = new ArrayList<>();
+    private final List<String> pages = new ArrayList<>();
+    private final List<String> contents = new ArrayList<>();
+
+    /**
+     * 追加一行
+     *
+     * @return 新行的序号
+     */
+    public int append(String source, String page, String content) {
+        sources.add(source);
+        pages.add(page);
+        contents.add(content);
+        return contents.size() - 1;
+    }
+
+    /**
+     * 追加另一文本表的全部行
+     */
+    public void appendAll(ChunkTable other) {
+        for (int i = 0; i < other.size(); i++) {
+            append(other.source(i), other.page(i), other.content(i));
+        }
+    }
+
+    @Override
+    public int size() {
+        return contents.size();
+    }
+
+    @Override
+    public String source(int ordinal) {
+        return sources.get(ordinal);
+    }
+
+    @Override
+    public String page(int ordinal) {
+        return pages.get(ordinal);
+    }
+
+    @Override
+    public String content(int ordinal) {
+        return contents.get(ordinal);
+    }
+}
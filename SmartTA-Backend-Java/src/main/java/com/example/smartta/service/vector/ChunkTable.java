@@ -0,0 +1,16 @@
+package com.example.smartta.service.vector;
+
+/**
+ * 文档块文本表
+ * 按序号读取来源、页码与正文，序号与嵌入矩阵的行号一一对应
+ */
+public interface ChunkTable {
+
+    int size();
+
+    String source(int ordinal);
+
+    String page(int ordinal);
+
+    String content(int ordinal);
+}
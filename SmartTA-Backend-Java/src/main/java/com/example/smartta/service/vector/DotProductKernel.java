@@ -0,0 +1,70 @@
+package com.example.smartta.service.vector;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 点积计算内核
+ * 向量行以小端序 float32 或 float16 存放在 {@link ByteBuffer} 中，偏移量均以字节计
+ */
+public interface DotProductKernel {
+
+    /**
+     * 计算矩阵中一行与查询向量的点积
+     *
+     * @param data      矩阵数据
+     * @param offset    行起始字节偏移
+     * @param query     查询向量
+     * @param dimension 向量维度
+     */
+    float dot(ByteBuffer data, int offset, float[] query, int dimension);
+
+    /**
+     * 计算两行的点积，两行可以位于不同的缓冲区
+     */
+    float dot(ByteBuffer first, int firstOffset, ByteBuffer second, int secondOffset, int dimension);
+
+    /**
+     * 计算 int8 量化码的整数点积
+     *
+     * @param codes     量化矩阵数据
+     * @param offset    行起始下标
+     * @param query     量化后的查询向量
+     * @param dimension 向量维度
+     */
+    int dot(byte[] codes, int offset, byte[] query, int dimension);
+
+    /**
+     * 计算两个堆内 float 数组片段的点积
+     */
+    float dot(float[] first, int firstOffset, float[] second, int secondOffset, int dimension);
+
+    /**
+     * 计算半精度存储的一行与 float 查询向量的点积，在内核中逐分量扩展为 float
+     */
+    float dotHalf(ByteBuffer data, int offset, float[] query, int dimension);
+
+    /**
+     * 计算两个半精度存储行的点积
+     */
+    float dotHalf(ByteBuffer first, int firstOffset, ByteBuffer second, int secondOffset, int dimension);
+
+    /**
+     * 计算矩阵中一行与一组查询向量的点积，该行只从内存加载一次
+     *
+     * @param data        矩阵数据
+     * @param offset      行起始字节偏移
+     * @param queries     按行平铺的查询向量
+     * @param queryOffset 第一个查询向量在 queries 中的下标
+     * @param queryCount  查询向量个数
+     * @param dimension   向量维度
+     * @param scores      依次写入每个查询的点积
+     */
+    void dotBlock(ByteBuffer data, int offset, float[] queries, int queryOffset, int queryCount,
+                  int dimension, float[] scores);
+
+    /**
+     * 与 {@link #dotBlock} 相同，矩阵行以半精度存放
+     */
+    void dotHalfBlock(ByteBuffer data, int offset, float[] queries, int queryOffset, int queryCount,
+                      int dimension, float[] scores);
+}
@@ -0,0 +1,52 @@
+package com.example.smartta.service.vector;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * 点积内核选择器
+ * 运行时启用了 jdk.incubator.vector 模块（--add-modules jdk.incubator.vector）时使用 SIMD 内核，否则回退到标量实现
+ */
+@Slf4j
+public final class DotProductKernels {
+
+    private static final String VECTOR_MODULE = "jdk.incubator.vector";
+    private static final String VECTOR_KERNEL_CLASS =
+            "com.example.smartta.service.vector.VectorApiDotProductKernel";
+
+    private static final DotProductKernel INSTANCE = select();
+
+    private DotProductKernels() {
+    }
+
+    /**
+     * 当前进程使用的点积内核
+     */
+    public static DotProductKernel get() {
+        return INSTANCE;
+    }
+
+    /**
+     * 当前内核的说明，用于启动日志
+     */
+    public static String describe() {
+        return INSTANCE instanceof ScalarDotProductKernel ? "标量" : "SIMD（" + VECTOR_MODULE + "）";
+    }
+
+    private static DotProductKernel select() {
+        if (ModuleLayer.boot().findModule(VECTOR_MODULE).isPresent()) {
+            try {
+                DotProductKernel kernel = (DotProductKernel) Class.forName(VECTOR_KERNEL_CLASS)
+                        .getDeclaredConstructor()
+                        .newInstance();
+                log.info("使用 SIMD 点积内核（{}）", VECTOR_MODULE);
+                return kernel;
+            } catch (ReflectiveOperationException | LinkageError e) {
+                log.warn("SIMD 点积内核加载失败，回退到标量实现：{}", e.toString());
+            }
+        } else {
+            log.info("未启用 {} 模块，使用标量点积内核；在 JVM 参数（或 JDK_JAVA_OPTIONS）中加入 --add-modules {} 可启用 SIMD 内核",
+                    VECTOR_MODULE, VECTOR_MODULE);
+        }
+        return new ScalarDotProductKernel();
+    }
+}
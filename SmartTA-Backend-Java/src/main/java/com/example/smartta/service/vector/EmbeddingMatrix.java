@@ -0,0 +1,279 @@
+package com.example.smartta.service.vector;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * 嵌入矩阵
+ * 以行主序（小端序）将全部向量连续存放在一块堆外内存或文件映射中，按文档序号寻址。
+ * 向量在写入时即单位化，余弦相似度因此退化为一次点积。
+ * 分量可按 float32 或 float16 存放，半精度在点积内核中扩展为 float 计算
+ */
+public final class EmbeddingMatrix implements VectorSource {
+
+    private static final int DEFAULT_CAPACITY = 1024;
+
+    private final int dimension;
+    private final VectorPrecision precision;
+    private final int rowBytes;
+    private final DotProductKernel kernel = DotProductKernels.get();
+    private ByteBuffer data;
+    private int capacity;
+    private int size;
+
+    public EmbeddingMatrix(int dimension) {
+        this(dimension, DEFAULT_CAPACITY);
+    }
+
+    public EmbeddingMatrix(int dimension, int initialCapacity) {
+        this(dimension, initialCapacity, VectorPrecision.FLOAT32);
+    }
+
+    public EmbeddingMatrix(int dimension, int initialCapacity, VectorPrecision precision) {
+        if (dimension <= 0) {
+            throw new IllegalArgumentException("向量维度必须为正数：" + dimension);
+        }
+        this.dimension = dimension;
+        this.precision = precision;
+        this.rowBytes = dimension * precision.bytes();
+        this.capacity = Math.max(initialCapacity, 1);
+        this.data = allocate(capacity);
+    }
+
+    private EmbeddingMatrix(int dimension, int size, ByteBuffer data, VectorPrecision precision) {
+        this.dimension = dimension;
+        this.precision = precision;
+        this.rowBytes = dimension * precision.bytes();
+        this.capacity = size;
+        this.size = size;
+        this.data = data.order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * 以已单位化的向量数据（如索引文件的映射区）构造矩阵，不复制数据。
+     * 数据缓冲区可以是只读的，追加新行时会先复制到新分配的堆外内存中
+     *
+     * @param dimension 向量维度
+     * @param size      行数
+     * @param data      行主序向量数据
+     * @param precision 数据中分量的存储精度
+     */
+    public static EmbeddingMatrix wrap(int dimension, int size, ByteBuffer data, VectorPrecision precision) {
+        if (dimension <= 0) {
+            throw new IllegalArgumentException("向量维度必须为正数：" + dimension);
+        }
+        if ((long) dimension * size * precision.bytes() > data.capacity()) {
+            throw new IllegalArgumentException("向量数据长度不足");
+        }
+        return new EmbeddingMatrix(dimension, size, data, precision);
+    }
+
+    @Override
+    public int dimension() {
+        return dimension;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    public VectorPrecision precision() {
+        return precision;
+    }
+
+    /**
+     * 单位化后追加一行向量
+     *
+     * @param vector 向量
+     * @return 新行的序号
+     */
+    public int append(float[] vector) {
+        if (vector.length != dimension) {
+            throw new IllegalArgumentException("向量维度不匹配：期望 " + dimension + "，实际 " + vector.length);
+        }
+        ensureCapacity(size + 1);
+
+        float norm = norm(vector);
+        float scale = norm > 0f ? 1f / norm : 0f;
+        putRow(size, vector, scale);
+        return size++;
+    }
+
+    @Override
+    public float similarity(int ordinal, float[] unitQuery) {
+        if (precision == VectorPrecision.FLOAT16) {
+            return kernel.dotHalf(data, ordinal * rowBytes, unitQuery, dimension);
+        }
+        return kernel.dot(data, ordinal * rowBytes, unitQuery, dimension);
+    }
+
+    @Override
+    public float similarity(int first, int second) {
+        if (precision == VectorPrecision.FLOAT16) {
+            return kernel.dotHalf(data, first * rowBytes, data, second * rowBytes, dimension);
+        }
+        return kernel.dot(data, first * rowBytes, data, second * rowBytes, dimension);
+    }
+
+    /**
+     * 一行与一组已单位化查询向量的余弦相似度，该行只加载一次
+     *
+     * @param ordinal     行序号
+     * @param unitQueries 按行平铺的查询向量
+     * @param queryOffset 第一个查询向量在 unitQueries 中的下标
+     * @param queryCount  查询向量个数
+     * @param scores      依次写入每个查询的相似度
+     */
+    public void similarity(int ordinal, float[] unitQueries, int queryOffset, int queryCount, float[] scores) {
+        if (precision == VectorPrecision.FLOAT16) {
+            kernel.dotHalfBlock(data, ordinal * rowBytes, unitQueries, queryOffset, queryCount, dimension, scores);
+        } else {
+            kernel.dotBlock(data, ordinal * rowBytes, unitQueries, queryOffset, queryCount, dimension, scores);
+        }
+    }
+
+    /**
+     * 本矩阵一行与另一矩阵一行的余弦相似度，两矩阵精度不同时先将对方的行扩展为 float
+     */
+    public float similarity(int ordinal, EmbeddingMatrix other, int otherOrdinal) {
+        if (precision != other.precision) {
+            return similarity(ordinal, other.row(otherOrdinal));
+        }
+        if (precision == VectorPrecision.FLOAT16) {
+            return kernel.dotHalf(data, ordinal * rowBytes, other.data, otherOrdinal * other.rowBytes, dimension);
+        }
+        return kernel.dot(data, ordinal * rowBytes, other.data, otherOrdinal * other.rowBytes, dimension);
+    }
+
+    /**
+     * 追加另一矩阵的全部行（源数据已单位化，不再重复处理），精度相同时按字节原样复制
+     */
+    public void appendRows(EmbeddingMatrix source) {
+        if (source.dimension != dimension) {
+            throw new IllegalArgumentException("向量维度不匹配：期望 " + dimension + "，实际 " + source.dimension);
+        }
+        ensureCapacity(size + source.size);
+        if (source.precision == precision) {
+            ByteBuffer target = data.duplicate();
+            target.position(size * rowBytes);
+            target.put(source.rawData());
+            size += source.size;
+            return;
+        }
+        for (int row = 0; row < source.size; row++) {
+            putRow(size++, source.row(row), 1f);
+        }
+    }
+
+    /**
+     * 追加另一矩阵中的一行，精度相同时按字节原样复制
+     */
+    public void appendRow(EmbeddingMatrix source, int ordinal) {
+        if (source.dimension != dimension) {
+            throw new IllegalArgumentException("向量维度不匹配：期望 " + dimension + "，实际 " + source.dimension);
+        }
+        ensureCapacity(size + 1);
+        if (source.precision == precision) {
+            ByteBuffer row = source.data.duplicate();
+            row.limit((ordinal + 1) * rowBytes).position(ordinal * rowBytes);
+            ByteBuffer target = data.duplicate();
+            target.position(size * rowBytes);
+            target.put(row);
+            size++;
+            return;
+        }
+        putRow(size++, source.row(ordinal), 1f);
+    }
+
+    /**
+     * 复制出指定行的（单位化）向量
+     */
+    public float[] row(int ordinal) {
+        if (ordinal < 0 || ordinal >= size) {
+            throw new IndexOutOfBoundsException("行序号越界：" + ordinal);
+        }
+        float[] vector = new float[dimension];
+        int offset = ordinal * rowBytes;
+        if (precision == VectorPrecision.FLOAT16) {
+            for (int i = 0; i < dimension; i++) {
+                vector[i] = HalfFloat.toFloat(data.getShort(offset + i * Short.BYTES));
+            }
+        } else {
+            for (int i = 0; i < dimension; i++) {
+                vector[i] = data.getFloat(offset + i * Float.BYTES);
+            }
+        }
+        return vector;
+    }
+
+    /**
+     * 全部行按存储精度编码的原始字节（小端序）的只读视图
+     */
+    public ByteBuffer rawData() {
+        ByteBuffer view = data.asReadOnlyBuffer();
+        view.position(0).limit(size * rowBytes);
+        return view;
+    }
+
+    /**
+     * 计算向量模长
+     */
+    public static float norm(float[] vector) {
+        double sumSquares = 0.0;
+        for (float v : vector) {
+            sumSquares += v * v;
+        }
+        return (float) Math.sqrt(sumSquares);
+    }
+
+    /**
+     * 返回单位化后的向量副本，零向量原样复制
+     */
+    public static float[] normalize(float[] vector) {
+        float norm = norm(vector);
+        float[] unit = vector.clone();
+        if (norm > 0f) {
+            for (int i = 0; i < unit.length; i++) {
+                unit[i] /= norm;
+            }
+        }
+        return unit;
+    }
+
+    private void putRow(int ordinal, float[] vector, float scale) {
+        int offset = ordinal * rowBytes;
+        if (precision == VectorPrecision.FLOAT16) {
+            for (int i = 0; i < dimension; i++) {
+                data.putShort(offset + i * Short.BYTES, HalfFloat.fromFloat(vector[i] * scale));
+            }
+        } else {
+            for (int i = 0; i < dimension; i++) {
+                data.putFloat(offset + i * Float.BYTES, vector[i] * scale);
+            }
+        }
+    }
+
+    private void ensureCapacity(int required) {
+        if (required <= capacity) {
+            return;
+        }
+        int newCapacity = Math.max(required, capacity + (capacity >> 1));
+        if ((long) newCapacity * rowBytes > Integer.MAX_VALUE) {
+            throw new IllegalStateException("嵌入矩阵超出单块内存上限");
+        }
+
+        ByteBuffer grown = allocate(newCapacity);
+        ByteBuffer source = data.duplicate();
+        source.position(0).limit(size * rowBytes);
+        grown.put(source);
+        grown.clear();
+
+        data = grown;
+        capacity = newCapacity;
+    }
+
+    private ByteBuffer allocate(int rows) {
+        return ByteBuffer.allocateDirect(rows * rowBytes).order(ByteOrder.LITTLE_ENDIAN);
+    }
+}
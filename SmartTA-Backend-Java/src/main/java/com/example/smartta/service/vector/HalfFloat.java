@@ -0,0 +1,71 @@
+package com.example.smartta.service.vector;
+
+/**
+ * IEEE 754 半精度（binary16）转换
+ * 运行环境为 JDK 17，尚无 Float.floatToFloat16 / float16ToFloat，此处按相同语义实现：
+ * 转换为半精度时按就近舍入（平局取偶），溢出为无穷，过小的值舍入为有符号零或次正规数
+ */
+public final class HalfFloat {
+
+    private static final float MIN_SUBNORMAL = 0x1p-24f;
+    // 大于等于该值的 float 舍入后超出半精度最大值 65504
+    private static final float OVERFLOW_THRESHOLD = 0x1.ffcp15f + 0x0.002p15f;
+
+    private HalfFloat() {
+    }
+
+    /**
+     * float 转半精度位模式
+     */
+    public static short fromFloat(float value) {
+        int bits = Float.floatToRawIntBits(value);
+        short sign = (short) ((bits & 0x8000_0000) >>> 16);
+        if (Float.isNaN(value)) {
+            return (short) (sign | 0x7e00);
+        }
+        float abs = Math.abs(value);
+        if (abs >= OVERFLOW_THRESHOLD) {
+            return (short) (sign | 0x7c00);
+        }
+        if (abs <= MIN_SUBNORMAL * 0.5f) {
+            return sign;
+        }
+
+        int exponent = Math.getExponent(value);
+        int shift = 13;
+        int implicitBit = 0;
+        if (exponent < -14) {
+            // 次正规数：尾数补上隐含位后右移，指数位为 0
+            shift += -14 - exponent;
+            exponent = -15;
+            implicitBit = 0x0080_0000;
+        }
+        int significand = bits & 0x007f_ffff | implicitBit;
+        int half = significand >> shift;
+        int lsb = significand & (1 << shift);
+        int round = significand & (1 << (shift - 1));
+        int sticky = significand & ((1 << (shift - 1)) - 1);
+        if (round != 0 && (lsb | sticky) != 0) {
+            half++;
+        }
+        // 尾数进位溢出时自然进入指数位
+        return (short) (sign | (((exponent + 15) << 10) + half));
+    }
+
+    /**
+     * 半精度位模式转 float，结果精确
+     */
+    public static float toFloat(short half) {
+        int sign = half & 0x8000;
+        int exponent = (half & 0x7c00) >> 10;
+        int significand = half & 0x03ff;
+        if (exponent == 0) {
+            float magnitude = MIN_SUBNORMAL * significand;
+            return sign != 0 ? -magnitude : magnitude;
+        }
+        if (exponent == 0x1f) {
+            return Float.intBitsToFloat(sign << 16 | 0x7f80_0000 | significand << 13);
+        }
+        return Float.intBitsToFloat(sign << 16 | (exponent - 15 + 127) << 23 | significand << 13);
+    }
+}
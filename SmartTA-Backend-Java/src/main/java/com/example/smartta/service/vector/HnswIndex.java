@@ -0,0 +1,552 @@
+package com.example.smartta.service.vector;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.IntPredicate;
+
+/**
+ * HNSW 近似最近邻索引
+ * 维护分层可导航小世界图，支持增量插入。
+ * 插入只由持有写锁的线程执行；读线程通过 {@link #reader()} 取得的只读视图检索，
+ * 视图只访问创建时已存在的节点，不会被并发插入阻塞。
+ * 图可保存到文件，重启后直接读取，只需插入保存之后新增的行
+ */
+public final class HnswIndex {
+
+    public static final String FILE_NAME = "hnsw.graph";
+
+    private static final int MAGIC = 0x5354484e;
+    private static final int VERSION = 1;
+    private static final long LEVEL_SEED = 42L;
+
+    private final int m;
+    private final int maxConnectionsLevel0;
+    private final int efConstruction;
+    private final double levelMultiplier;
+    private SplittableRandom random = new SplittableRandom(LEVEL_SEED);
+
+    /**
+     * nodes[node].links.get(level) 为该节点在对应层的邻居列表，列表只整体替换、不原地修改
+     */
+    private volatile Node[] nodes = new Node[16];
+    private int size;
+    private int entryPoint = -1;
+    private int maxLevel = -1;
+
+    private final ThreadLocal<VisitedSet> visitedSets = ThreadLocal.withInitial(VisitedSet::new);
+
+    public HnswIndex(int m, int efConstruction) {
+        if (m < 2) {
+            throw new IllegalArgumentException("HNSW 参数 M 至少为 2：" + m);
+        }
+        this.m = m;
+        this.maxConnectionsLevel0 = m * 2;
+        this.efConstruction = Math.max(efConstruction, m);
+        this.levelMultiplier = 1.0 / Math.log(m);
+    }
+
+    /**
+     * 已编入索引的节点数
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * 将向量集合中尚未编入索引的行依次插入图中
+     */
+    public void addPending(VectorSource vectors) {
+        while (size < vectors.size()) {
+            insert(vectors, size);
+        }
+    }
+
+    /**
+     * 当前图状态的只读视图，可安全发布给任意线程
+     */
+    public Reader reader() {
+        return new Reader(this, entryPoint, maxLevel, size);
+    }
+
+    /**
+     * 保存图结构，避免重启后重新构建。调用方须保证期间没有并发插入
+     *
+     * <pre>
+     * int magic, int version, int m, int efConstruction, int size, int entryPoint, int maxLevel，
+     * 随后每个节点依次为 int 层数，以及每层的 int count 与 count 个邻居序号
+     * </pre>
+     */
+    public void write(Path file) throws IOException {
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        Node[] graph = nodes;
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(m);
+            out.writeInt(efConstruction);
+            out.writeInt(size);
+            out.writeInt(entryPoint);
+            out.writeInt(maxLevel);
+            for (int node = 0; node < size; node++) {
+                AtomicReferenceArray<int[]> links = graph[node].links;
+                out.writeInt(links.length());
+                for (int l = 0; l < links.length(); l++) {
+                    int[] neighbors = links.get(l);
+                    out.writeInt(neighbors.length);
+                    for (int neighbor : neighbors) {
+                        out.writeInt(neighbor);
+                    }
+                }
+            }
+            out.flush();
+            channel.force(true);
+        }
+        try {
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * 读取以给定参数构建的图
+     */
+    public static HnswIndex read(Path file, int m, int efConstruction) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("不是有效的 HNSW 图文件：" + file);
+            }
+            int version = in.readInt();
+            if (version != VERSION) {
+                throw new IOException("不支持的 HNSW 图文件版本：" + version);
+            }
+            HnswIndex index = new HnswIndex(m, efConstruction);
+            if (in.readInt() != index.m || in.readInt() != index.efConstruction) {
+                throw new IOException("HNSW 图文件与当前参数不匹配：" + file);
+            }
+            int size = in.readInt();
+            index.entryPoint = in.readInt();
+            index.maxLevel = in.readInt();
+            Node[] graph = new Node[Math.max(Integer.highestOneBit(Math.max(size, 8)) * 2, 16)];
+            for (int node = 0; node < size; node++) {
+                int levels = in.readInt();
+                Node restored = new Node(levels - 1);
+                for (int l = 0; l < levels; l++) {
+                    int[] neighbors = new int[in.readInt()];
+                    for (int i = 0; i < neighbors.length; i++) {
+                        neighbors[i] = in.readInt();
+                    }
+                    restored.links.set(l, neighbors);
+                }
+                graph[node] = restored;
+            }
+            index.nodes = graph;
+            index.size = size;
+            // 之后插入的节点不重复使用已抽取过的层级序列
+            index.random = new SplittableRandom(LEVEL_SEED + size);
+            return index;
+        }
+    }
+
+    /**
+     * 插入指定行，序号必须等于当前节点数
+     */
+    public void insert(VectorSource vectors, int ordinal) {
+        if (ordinal != size) {
+            throw new IllegalArgumentException("HNSW 节点必须按序插入：" + ordinal);
+        }
+
+        int level = randomLevel();
+        Node node = new Node(level);
+        Node[] current = nodes;
+        if (ordinal == current.length) {
+            current = Arrays.copyOf(current, current.length * 2);
+        }
+        current[ordinal] = node;
+        nodes = current;
+        size++;
+
+        if (entryPoint < 0) {
+            entryPoint = ordinal;
+            maxLevel = level;
+            return;
+        }
+
+        NodeScorer toNew = other -> vectors.similarity(ordinal, other);
+        int nearest = greedyDescend(toNew, entryPoint, maxLevel, level, size);
+
+        for (int l = Math.min(level, maxLevel); l >= 0; l--) {
+            NodeHeap candidates = searchLayer(toNew, nearest, efConstruction, l, size, null);
+            int maxConnections = l == 0 ? maxConnectionsLevel0 : m;
+            int[] selected = selectNeighbors(vectors, candidates.toSortedNodes(), m, toNew);
+            node.links.set(l, selected);
+
+            for (int neighbor : selected) {
+                connect(vectors, neighbor, ordinal, l, maxConnections);
+            }
+            nearest = candidates.best();
+        }
+
+        if (level > maxLevel) {
+            maxLevel = level;
+            entryPoint = ordinal;
+        }
+    }
+
+    /**
+     * 从 fromLevel 逐层贪心逼近，停在 stopLevel 之上一层找到的最近节点
+     */
+    private int greedyDescend(NodeScorer scorer, int entry, int fromLevel, int stopLevel, int limit) {
+        Node[] graph = nodes;
+        int current = entry;
+        float currentScore = scorer.score(current);
+        for (int l = fromLevel; l > stopLevel; l--) {
+            boolean changed = true;
+            while (changed) {
+                changed = false;
+                for (int neighbor : graph[current].links.get(l)) {
+                    if (neighbor >= limit) {
+                        continue;
+                    }
+                    float score = scorer.score(neighbor);
+                    if (score > currentScore) {
+                        currentScore = score;
+                        current = neighbor;
+                        changed = true;
+                    }
+                }
+            }
+        }
+        return current;
+    }
+
+    /**
+     * 在指定层做束搜索，只访问序号小于 limit 的节点。
+     * excluded 选中的节点照常用于导航，但不进入结果；结果不足 ef 个时继续扩展，
+     * 因此只多访问遍历途中遇到的排除节点，与排除节点的总数无关
+     *
+     * @param excluded 不进入结果的节点，为 null 时不排除
+     */
+    private NodeHeap searchLayer(NodeScorer scorer, int entry, int ef, int level, int limit, IntPredicate excluded) {
+        Node[] graph = nodes;
+        VisitedSet visited = visitedSets.get();
+        visited.reset(limit);
+        visited.add(entry);
+
+        float entryScore = scorer.score(entry);
+        NodeHeap candidates = new NodeHeap(ef, true);
+        NodeHeap results = new NodeHeap(ef, false);
+        candidates.push(entry, entryScore);
+        if (excluded == null || !excluded.test(entry)) {
+            results.push(entry, entryScore);
+        }
+
+        while (candidates.size() > 0) {
+            float candidateScore = candidates.topScore();
+            if (results.size() >= ef && candidateScore < results.topScore()) {
+                break;
+            }
+            int candidate = candidates.pop();
+            for (int neighbor : graph[candidate].links.get(level)) {
+                if (neighbor >= limit || !visited.add(neighbor)) {
+                    continue;
+                }
+                float score = scorer.score(neighbor);
+                if (results.size() < ef || score > results.topScore()) {
+                    candidates.push(neighbor, score);
+                    if (excluded != null && excluded.test(neighbor)) {
+                        continue;
+                    }
+                    results.push(neighbor, score);
+                    if (results.size() > ef) {
+                        results.pop();
+                    }
+                }
+            }
+        }
+        return results;
+    }
+
+    /**
+     * 启发式邻居选择：候选按相似度降序遍历，
+     * 优先保留与基准点比与任一已选邻居更接近的候选以保持图的多样性，名额不足时再按相似度补齐
+     */
+    private int[] selectNeighbors(VectorSource vectors, int[] sortedCandidates, int limit, NodeScorer toBase) {
+        int[] selected = new int[Math.min(limit, sortedCandidates.length)];
+        boolean[] taken = new boolean[sortedCandidates.length];
+        int count = 0;
+        for (int c = 0; c < sortedCandidates.length && count < selected.length; c++) {
+            int candidate = sortedCandidates[c];
+            float baseScore = toBase.score(candidate);
+            boolean diverse = true;
+            for (int i = 0; i < count; i++) {
+                if (vectors.similarity(candidate, selected[i]) > baseScore) {
+                    diverse = false;
+                    break;
+                }
+            }
+            if (diverse) {
+                selected[count++] = candidate;
+                taken[c] = true;
+            }
+        }
+        for (int c = 0; c < sortedCandidates.length && count < selected.length; c++) {
+            if (!taken[c]) {
+                selected[count++] = sortedCandidates[c];
+            }
+        }
+        return selected;
+    }
+
+    private void connect(VectorSource vectors, int node, int newNeighbor, int level, int maxConnections) {
+        AtomicReferenceArray<int[]> links = nodes[node].links;
+        int[] current = links.get(level);
+        int[] extended = Arrays.copyOf(current, current.length + 1);
+        extended[current.length] = newNeighbor;
+
+        if (extended.length <= maxConnections) {
+            links.set(level, extended);
+            return;
+        }
+
+        NodeHeap ranked = new NodeHeap(extended.length, false);
+        for (int neighbor : extended) {
+            ranked.push(neighbor, vectors.similarity(node, neighbor));
+        }
+        links.set(level, selectNeighbors(vectors, ranked.toSortedNodes(), maxConnections,
+                neighbor -> vectors.similarity(node, neighbor)));
+    }
+
+    private int randomLevel() {
+        double r = 1.0 - random.nextDouble();
+        return (int) (-Math.log(r) * levelMultiplier);
+    }
+
+    /**
+     * 图的只读视图
+     * 固定了创建时的入口点、最高层与节点数，检索时跳过之后插入的节点
+     */
+    public static final class Reader {
+        private final HnswIndex index;
+        private final int entryPoint;
+        private final int maxLevel;
+        private final int size;
+
+        private Reader(HnswIndex index, int entryPoint, int maxLevel, int size) {
+            this.index = index;
+            this.entryPoint = entryPoint;
+            this.maxLevel = maxLevel;
+            this.size = size;
+        }
+
+        public int size() {
+            return size;
+        }
+
+        /**
+         * 近似最近邻搜索
+         *
+         * @param vectors   与视图同时发布的向量集合
+         * @param unitQuery 已单位化的查询向量
+         * @param topK      返回数量
+         * @param efSearch  搜索时的候选集大小
+         * @return 按相似度降序排列的结果
+         */
+        public SearchHits search(VectorSource vectors, float[] unitQuery, int topK, int efSearch) {
+            return search(vectors, unitQuery, topK, efSearch, null);
+        }
+
+        /**
+         * 排除部分节点的近似最近邻搜索，如合并清除前仍留在图中的已删除行。
+         * 排除的节点参与图遍历以保持连通，但不计入结果
+         *
+         * @param excluded 不进入结果的节点，为 null 时不排除
+         */
+        public SearchHits search(VectorSource vectors, float[] unitQuery, int topK, int efSearch, IntPredicate excluded) {
+            if (entryPoint < 0 || topK <= 0) {
+                return SearchHits.empty();
+            }
+            NodeScorer scorer = node -> vectors.similarity(node, unitQuery);
+            int nearest = index.greedyDescend(scorer, entryPoint, maxLevel, 0, size);
+            NodeHeap results = index.searchLayer(scorer, nearest, Math.max(efSearch, topK), 0, size, excluded);
+            TopKSelector selector = new TopKSelector(topK);
+            results.drainTo(selector);
+            return selector.drain();
+        }
+    }
+
+    /**
+     * 图节点，各层邻居列表经原子引用发布，读线程总能看到完整的列表
+     */
+    private static final class Node {
+        private final AtomicReferenceArray<int[]> links;
+
+        Node(int level) {
+            links = new AtomicReferenceArray<>(level + 1);
+            for (int l = 0; l <= level; l++) {
+                links.set(l, new int[0]);
+            }
+        }
+    }
+
+    @FunctionalInterface
+    private interface NodeScorer {
+        float score(int node);
+    }
+
+    /**
+     * 基于世代号的访问标记，避免每次搜索分配位图
+     */
+    private static final class VisitedSet {
+        private int[] marks = new int[0];
+        private int generation;
+
+        void reset(int capacity) {
+            if (marks.length < capacity) {
+                marks = new int[Math.max(capacity, marks.length * 2)];
+                generation = 0;
+            }
+            generation++;
+            if (generation == Integer.MAX_VALUE) {
+                Arrays.fill(marks, 0);
+                generation = 1;
+            }
+        }
+
+        boolean add(int node) {
+            if (marks[node] == generation) {
+                return false;
+            }
+            marks[node] = generation;
+            return true;
+        }
+    }
+
+    /**
+     * 基于原始数组的二叉堆，maxHeap 为 true 时堆顶为最高分，否则为最低分
+     */
+    private static final class NodeHeap {
+        private int[] nodes;
+        private float[] scores;
+        private final boolean maxHeap;
+        private int size;
+
+        NodeHeap(int initialCapacity, boolean maxHeap) {
+            this.nodes = new int[Math.max(initialCapacity + 1, 4)];
+            this.scores = new float[nodes.length];
+            this.maxHeap = maxHeap;
+        }
+
+        int size() {
+            return size;
+        }
+
+        float topScore() {
+            return scores[0];
+        }
+
+        void push(int node, float score) {
+            if (size == nodes.length) {
+                nodes = Arrays.copyOf(nodes, size * 2);
+                scores = Arrays.copyOf(scores, size * 2);
+            }
+            int i = size++;
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                if (!before(score, scores[parent])) {
+                    break;
+                }
+                nodes[i] = nodes[parent];
+                scores[i] = scores[parent];
+                i = parent;
+            }
+            nodes[i] = node;
+            scores[i] = score;
+        }
+
+        int pop() {
+            int top = nodes[0];
+            size--;
+            if (size > 0) {
+                int lastNode = nodes[size];
+                float lastScore = scores[size];
+                int i = 0;
+                while (true) {
+                    int child = 2 * i + 1;
+                    if (child >= size) {
+                        break;
+                    }
+                    if (child + 1 < size && before(scores[child + 1], scores[child])) {
+                        child++;
+                    }
+                    if (!before(scores[child], lastScore)) {
+                        break;
+                    }
+                    nodes[i] = nodes[child];
+                    scores[i] = scores[child];
+                    i = child;
+                }
+                nodes[i] = lastNode;
+                scores[i] = lastScore;
+            }
+            return top;
+        }
+
+        /**
+         * 堆中得分最高的节点
+         */
+        int best() {
+            int best = nodes[0];
+            float bestScore = scores[0];
+            for (int i = 1; i < size; i++) {
+                if (scores[i] > bestScore) {
+                    bestScore = scores[i];
+                    best = nodes[i];
+                }
+            }
+            return best;
+        }
+
+        /**
+         * 将全部节点提交给选择器
+         */
+        void drainTo(TopKSelector selector) {
+            for (int i = 0; i < size; i++) {
+                selector.offer(nodes[i], scores[i]);
+            }
+        }
+
+        /**
+         * 按得分降序导出全部节点（仅用于最小堆），不改变当前堆
+         */
+        int[] toSortedNodes() {
+            NodeHeap copy = new NodeHeap(0, false);
+            copy.nodes = Arrays.copyOf(nodes, Math.max(size, 1));
+            copy.scores = Arrays.copyOf(scores, Math.max(size, 1));
+            copy.size = size;
+            int[] sorted = new int[size];
+            for (int i = size - 1; i >= 0; i--) {
+                sorted[i] = copy.pop();
+            }
+            return sorted;
+        }
+
+        private boolean before(float a, float b) {
+            return maxHeap ? a > b : a < b;
+        }
+    }
+}
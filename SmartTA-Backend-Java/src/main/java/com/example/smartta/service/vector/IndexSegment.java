@@ -0,0 +1,174 @@
+package com.example.smartta.service.vector;
+
+import java.util.BitSet;
+
+/**
+ * 索引段
+ * 对应磁盘上一个不可变的段文件，包含一组连续文档块的向量与文本。
+ * 删除只记录在墓碑位图中，段文件本身不变；标记删除返回共享同一份数据的新实例
+ */
+public final class IndexSegment {
+
+    private final String name;
+    private final EmbeddingMatrix matrix;
+    private final ChunkTable columns;
+    /**
+     * 已删除的段内序号，无删除时为 null；发布后不再修改
+     */
+    private final BitSet deleted;
+    private final int deletedCount;
+    private volatile Int8Matrix int8;
+    private volatile BinaryMatrix binary;
+    private volatile ProjectedMatrix projected;
+    private volatile MetadataIndex metadata;
+
+    public IndexSegment(String name, EmbeddingMatrix matrix, ChunkTable columns) {
+        this(name, matrix, columns, null);
+    }
+
+    /**
+     * @param deleted 已删除的段内序号，可为 null
+     */
+    public IndexSegment(String name, EmbeddingMatrix matrix, ChunkTable columns, BitSet deleted) {
+        if (matrix.size() != columns.size()) {
+            throw new IllegalArgumentException("段内向量数量与文档块数量不一致：" + name);
+        }
+        if (deleted != null && deleted.length() > matrix.size()) {
+            throw new IllegalArgumentException("墓碑序号超出段范围：" + name);
+        }
+        this.name = name;
+        this.matrix = matrix;
+        this.columns = columns;
+        this.deleted = deleted == null || deleted.isEmpty() ? null : (BitSet) deleted.clone();
+        this.deletedCount = this.deleted == null ? 0 : this.deleted.cardinality();
+    }
+
+    /**
+     * 在现有墓碑基础上再标记一批行为已删除
+     * 新实例与本实例共享段文件映射及已计算的量化、投影副本和元数据位图
+     *
+     * @param rows 新删除的段内序号
+     */
+    public IndexSegment withDeleted(BitSet rows) {
+        BitSet merged = deleted == null ? new BitSet() : (BitSet) deleted.clone();
+        merged.or(rows);
+        IndexSegment segment = new IndexSegment(name, matrix, columns, merged);
+        segment.int8 = int8;
+        segment.binary = binary;
+        segment.projected = projected;
+        segment.metadata = metadata;
+        return segment;
+    }
+
+    /**
+     * 指定行是否已删除
+     */
+    public boolean isDeleted(int local) {
+        return deleted != null && deleted.get(local);
+    }
+
+    /**
+     * 已删除行的位图副本，无删除时为空位图
+     */
+    public BitSet deleted() {
+        return deleted == null ? new BitSet() : (BitSet) deleted.clone();
+    }
+
+    public int deletedCount() {
+        return deletedCount;
+    }
+
+    /**
+     * 未删除的行数
+     */
+    public int liveCount() {
+        return size() - deletedCount;
+    }
+
+    /**
+     * 段文件名
+     */
+    public String name() {
+        return name;
+    }
+
+    public EmbeddingMatrix matrix() {
+        return matrix;
+    }
+
+    public ChunkTable columns() {
+        return columns;
+    }
+
+    /**
+     * 段的 int8 量化副本，首次访问时由映射的 float 向量计算并缓存
+     */
+    public Int8Matrix int8() {
+        Int8Matrix codes = int8;
+        if (codes == null) {
+            synchronized (this) {
+                codes = int8;
+                if (codes == null) {
+                    codes = Int8Matrix.quantize(matrix);
+                    int8 = codes;
+                }
+            }
+        }
+        return codes;
+    }
+
+    /**
+     * 段的二值量化副本，首次访问时由映射的 float 向量计算并缓存
+     */
+    public BinaryMatrix binary() {
+        BinaryMatrix codes = binary;
+        if (codes == null) {
+            synchronized (this) {
+                codes = binary;
+                if (codes == null) {
+                    codes = BinaryMatrix.quantize(matrix);
+                    binary = codes;
+                }
+            }
+        }
+        return codes;
+    }
+
+    /**
+     * 段的降维投影副本，首次访问或投影变化时由映射的 float 向量计算并缓存
+     */
+    public ProjectedMatrix projected(RandomProjection projection) {
+        ProjectedMatrix vectors = projected;
+        if (vectors == null || vectors.projection() != projection) {
+            synchronized (this) {
+                vectors = projected;
+                if (vectors == null || vectors.projection() != projection) {
+                    vectors = ProjectedMatrix.project(matrix, projection);
+                    projected = vectors;
+                }
+            }
+        }
+        return vectors;
+    }
+
+    /**
+     * 段的来源与页码位图索引，首次访问时由文本表构建并缓存
+     */
+    public MetadataIndex metadata() {
+        MetadataIndex index = metadata;
+        if (index == null) {
+            synchronized (this) {
+                index = metadata;
+                if (index == null) {
+                    index = MetadataIndex.build(columns);
+                    metadata = index;
+                }
+            }
+        }
+        return index;
+    }
+
+    public int size() {
+        return columns.size();
+    }
+}
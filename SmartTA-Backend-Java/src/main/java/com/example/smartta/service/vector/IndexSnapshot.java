@@ -0,0 +1,50 @@
+package com.example.smartta.service.vector;
+
+/**
+ * 索引快照
+ * 某一版本下的段集合与近似索引（HNSW、IVF-PQ）的只读视图，创建后不再改变。
+ * 写线程构造新快照后整体替换发布，读线程取得引用后即可无锁检索
+ */
+public final class IndexSnapshot {
+
+    private final long version;
+    private final SegmentedIndex segments;
+    private final HnswIndex.Reader hnsw;
+    private final IvfPqIndex.Reader ivfPq;
+
+    public IndexSnapshot(long version, SegmentedIndex segments, HnswIndex.Reader hnsw, IvfPqIndex.Reader ivfPq) {
+        this.version = version;
+        this.segments = segments;
+        this.hnsw = hnsw;
+        this.ivfPq = ivfPq;
+    }
+
+    /**
+     * 快照版本号，每次发布新快照时递增
+     */
+    public long version() {
+        return version;
+    }
+
+    public SegmentedIndex segments() {
+        return segments;
+    }
+
+    /**
+     * HNSW 只读视图，未启用 HNSW 时为 null
+     */
+    public HnswIndex.Reader hnsw() {
+        return hnsw;
+    }
+
+    /**
+     * IVF-PQ 只读视图，未启用 IVF-PQ 时为 null
+     */
+    public IvfPqIndex.Reader ivfPq() {
+        return ivfPq;
+    }
+
+    public int size() {
+        return segments.size();
+    }
+}
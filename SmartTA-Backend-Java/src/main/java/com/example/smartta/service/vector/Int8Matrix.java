@@ -0,0 +1,94 @@
+package com.example.smartta.service.vector;
+
+/**
+ * int8 标量量化矩阵
+ * 每行按自身最大绝对值缩放到 [-127, 127]，只保留量化码与每行一个缩放系数，内存约为 float32 的四分之一。
+ * 量化得分只用于粗筛，最终排序仍以原始 float 向量重新打分
+ */
+public final class Int8Matrix {
+
+    private static final int LEVELS = 127;
+
+    private final int dimension;
+    private final int size;
+    private final DotProductKernel kernel = DotProductKernels.get();
+    private final byte[] codes;
+    private final float[] scales;
+
+    private Int8Matrix(int dimension, int size, byte[] codes, float[] scales) {
+        this.dimension = dimension;
+        this.size = size;
+        this.codes = codes;
+        this.scales = scales;
+    }
+
+    /**
+     * 对嵌入矩阵的全部行做逐行量化
+     */
+    public static Int8Matrix quantize(EmbeddingMatrix matrix) {
+        int dimension = matrix.dimension();
+        int size = matrix.size();
+        if ((long) dimension * size > Integer.MAX_VALUE) {
+            throw new IllegalStateException("量化矩阵超出单个数组上限");
+        }
+        byte[] codes = new byte[dimension * size];
+        float[] scales = new float[size];
+        for (int row = 0; row < size; row++) {
+            scales[row] = encode(matrix.row(row), codes, row * dimension);
+        }
+        return new Int8Matrix(dimension, size, codes, scales);
+    }
+
+    /**
+     * 量化查询向量，同一查询可在多个段之间复用
+     */
+    public static Query quantizeQuery(float[] unitQuery) {
+        byte[] codes = new byte[unitQuery.length];
+        float scale = encode(unitQuery, codes, 0);
+        return new Query(codes, scale);
+    }
+
+    public int dimension() {
+        return dimension;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * 量化后的近似点积
+     */
+    public float similarity(int ordinal, Query query) {
+        int dot = kernel.dot(codes, ordinal * dimension, query.codes, dimension);
+        return dot * scales[ordinal] * query.scale;
+    }
+
+    private static float encode(float[] vector, byte[] target, int offset) {
+        float maxAbs = 0f;
+        for (float v : vector) {
+            maxAbs = Math.max(maxAbs, Math.abs(v));
+        }
+        if (maxAbs == 0f) {
+            return 0f;
+        }
+        float inverse = LEVELS / maxAbs;
+        for (int i = 0; i < vector.length; i++) {
+            target[offset + i] = (byte) Math.round(vector[i] * inverse);
+        }
+        return maxAbs / LEVELS;
+    }
+
+    /**
+     * 量化后的查询向量
+     */
+    public static final class Query {
+        private final byte[] codes;
+        private final float scale;
+
+        private Query(byte[] codes, float scale) {
+            this.codes = codes;
+            this.scale = scale;
+        }
+    }
+}
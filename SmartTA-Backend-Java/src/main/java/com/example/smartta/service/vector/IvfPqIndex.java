@@ -0,0 +1,253 @@
+package com.example.smartta.service.vector;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.function.IntPredicate;
+import java.util.stream.IntStream;
+
+/**
+ * IVF-PQ 倒排索引
+ * 每行按所属粗聚类质心进入一个倒排列表，列表中只保存序号与 PQ 码。
+ * 与 {@link HnswIndex} 相同，插入由单个写线程完成，读线程通过 {@link #reader()} 取得的视图检索，
+ * 视图只访问创建时各列表中已有的条目
+ */
+public final class IvfPqIndex {
+
+    public static final String FILE_NAME = "ivfpq.lists";
+
+    private static final int MAGIC = 0x5354494c;
+    private static final int VERSION = 1;
+    private static final int INITIAL_LIST_CAPACITY = 16;
+
+    private final IvfPqModel model;
+    private final InvertedList[] lists;
+    private int size;
+
+    public IvfPqIndex(IvfPqModel model) {
+        this.model = model;
+        this.lists = new InvertedList[model.lists()];
+        for (int i = 0; i < lists.length; i++) {
+            lists[i] = new InvertedList(model.subspaces());
+        }
+    }
+
+    public IvfPqModel model() {
+        return model;
+    }
+
+    /**
+     * 已编入索引的行数
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * 将向量集合中尚未编入索引的行编码并加入倒排列表
+     * 分配与编码按行并行计算，之后按序号顺序写入列表
+     */
+    public void addPending(SegmentedIndex vectors) {
+        int from = size;
+        int pending = vectors.size() - from;
+        if (pending <= 0) {
+            return;
+        }
+        int codeLength = model.subspaces();
+        int[] assignments = new int[pending];
+        byte[] encoded = new byte[pending * codeLength];
+        IntStream.range(0, pending).parallel().forEach(i -> {
+            float[] vector = vectors.row(from + i);
+            assignments[i] = model.assign(vector);
+            model.encode(vector, assignments[i], encoded, i * codeLength);
+        });
+
+        byte[] code = new byte[codeLength];
+        for (int i = 0; i < pending; i++) {
+            System.arraycopy(encoded, i * codeLength, code, 0, codeLength);
+            lists[assignments[i]].append(from + i, code);
+        }
+        size = from + pending;
+    }
+
+    /**
+     * 当前各列表状态的只读视图，可安全发布给任意线程
+     */
+    public Reader reader() {
+        int[] counts = new int[lists.length];
+        for (int i = 0; i < lists.length; i++) {
+            counts[i] = lists[i].count;
+        }
+        return new Reader(this, counts);
+    }
+
+    /**
+     * 保存倒排列表，避免重启后重新编码全部行。调用方须保证期间没有并发插入
+     *
+     * <pre>
+     * int magic, int version, int lists, int codeLength, int size，
+     * 随后每个列表依次为 int count、count 个序号、count * codeLength 字节的 PQ 码
+     * </pre>
+     */
+    public void write(Path file) throws IOException {
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(lists.length);
+            out.writeInt(model.subspaces());
+            out.writeInt(size);
+            for (InvertedList list : lists) {
+                out.writeInt(list.count);
+                for (int i = 0; i < list.count; i++) {
+                    out.writeInt(list.ordinals[i]);
+                }
+                out.write(list.codes, 0, list.count * list.codeLength);
+            }
+            // 与模型文件相同，落盘后再替换，避免崩溃后留下不完整的列表文件
+            out.flush();
+            channel.force(true);
+        }
+        try {
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * 读取以给定模型编码的倒排列表
+     */
+    public static IvfPqIndex read(Path file, IvfPqModel model) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("不是有效的 IVF-PQ 列表文件：" + file);
+            }
+            int version = in.readInt();
+            if (version != VERSION) {
+                throw new IOException("不支持的 IVF-PQ 列表文件版本：" + version);
+            }
+            if (in.readInt() != model.lists() || in.readInt() != model.subspaces()) {
+                throw new IOException("IVF-PQ 列表文件与模型不匹配：" + file);
+            }
+            IvfPqIndex index = new IvfPqIndex(model);
+            index.size = in.readInt();
+            if (index.size < 0) {
+                throw new IOException("IVF-PQ 列表文件行数不合法：" + index.size);
+            }
+            for (InvertedList list : index.lists) {
+                int count = in.readInt();
+                if (count < 0 || count > index.size) {
+                    throw new IOException("IVF-PQ 列表文件中的列表长度不合法：" + count);
+                }
+                int capacity = Math.max(count, INITIAL_LIST_CAPACITY);
+                int[] ordinals = new int[capacity];
+                for (int i = 0; i < count; i++) {
+                    ordinals[i] = in.readInt();
+                }
+                byte[] codes = new byte[capacity * list.codeLength];
+                in.readFully(codes, 0, count * list.codeLength);
+                list.ordinals = ordinals;
+                list.codes = codes;
+                list.count = count;
+            }
+            return index;
+        }
+    }
+
+    /**
+     * 倒排索引的只读视图
+     */
+    public static final class Reader {
+        private final IvfPqIndex index;
+        private final int[] counts;
+
+        private Reader(IvfPqIndex index, int[] counts) {
+            this.index = index;
+            this.counts = counts;
+        }
+
+        /**
+         * 在与查询最接近的 nprobe 个列表中按 PQ 近似内积检索
+         *
+         * @param unitQuery  已单位化的查询向量
+         * @param candidates 返回数量
+         * @param nprobe     探查的列表数
+         * @return 按近似相似度降序排列的结果
+         */
+        public SearchHits search(float[] unitQuery, int candidates, int nprobe) {
+            return search(unitQuery, candidates, nprobe, null);
+        }
+
+        /**
+         * 跳过部分行的检索，如合并清除前仍留在倒排列表中的已删除行
+         *
+         * @param excluded 跳过的行，为 null 时不跳过
+         */
+        public SearchHits search(float[] unitQuery, int candidates, int nprobe, IntPredicate excluded) {
+            IvfPqModel model = index.model;
+            float[] centroidScores = model.centroidScores(unitQuery);
+            TopKSelector probes = new TopKSelector(Math.max(1, Math.min(nprobe, centroidScores.length)));
+            for (int list = 0; list < centroidScores.length; list++) {
+                probes.offer(list, centroidScores[list]);
+            }
+
+            float[] table = model.lookupTable(unitQuery);
+            int codeLength = model.subspaces();
+            TopKSelector selector = new TopKSelector(candidates);
+            SearchHits probed = probes.drain();
+            for (int rank = 0; rank < probed.size(); rank++) {
+                int list = probed.ordinal(rank);
+                InvertedList entries = index.lists[list];
+                byte[] codes = entries.codes;
+                int[] ordinals = entries.ordinals;
+                float base = probed.score(rank);
+                for (int i = 0; i < counts[list]; i++) {
+                    if (excluded != null && excluded.test(ordinals[i])) {
+                        continue;
+                    }
+                    selector.offer(ordinals[i], base + model.residualScore(table, codes, i * codeLength));
+                }
+            }
+            return selector.drain();
+        }
+    }
+
+    /**
+     * 倒排列表
+     * 数组扩容时先复制再替换引用，已发布的条目不会被修改，读线程总能读到视图范围内的完整条目
+     */
+    private static final class InvertedList {
+        private final int codeLength;
+        private volatile int[] ordinals = new int[INITIAL_LIST_CAPACITY];
+        private volatile byte[] codes;
+        private int count;
+
+        InvertedList(int codeLength) {
+            this.codeLength = codeLength;
+            this.codes = new byte[INITIAL_LIST_CAPACITY * codeLength];
+        }
+
+        void append(int ordinal, byte[] code) {
+            if (count == ordinals.length) {
+                int capacity = count + (count >> 1);
+                codes = Arrays.copyOf(codes, capacity * codeLength);
+                ordinals = Arrays.copyOf(ordinals, capacity);
+            }
+            System.arraycopy(code, 0, codes, count * codeLength, codeLength);
+            ordinals[count] = ordinal;
+            count++;
+        }
+    }
+}
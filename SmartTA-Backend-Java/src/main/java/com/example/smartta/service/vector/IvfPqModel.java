@@ -0,0 +1,278 @@
+package com.example.smartta.service.vector;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * IVF-PQ 量化模型
+ * 由粗聚类质心（倒排列表划分）与残差的乘积量化码本组成，训练一次后持久化复用。
+ *
+ * <pre>
+ * 文件格式（小端序）
+ *   int  magic        固定为 "STPQ"
+ *   int  version      格式版本
+ *   int  dimension    向量维度
+ *   int  lists        粗聚类质心数
+ *   int  subspaces    PQ 子空间数
+ *   int  codes        每个子空间的码字数（不超过 256）
+ *   long trainedRows  训练时的数据行数
+ *   float[lists * dimension]           粗聚类质心
+ *   float[subspaces * codes * subDim]  PQ 码本
+ * </pre>
+ *
+ * 向量 x 编码为所属列表 c 与残差 x - c 的 PQ 码，内积可分解为 q·c + Σ q_j·r_j，
+ * 因此一次查询只需一张 subspaces * codes 的查找表
+ */
+public final class IvfPqModel {
+
+    public static final String FILE_NAME = "ivfpq.model";
+
+    private static final int MAGIC = 0x53545051;
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 32;
+    private static final int MAX_CODES = 256;
+    // 每个质心至少分摊的训练样本数，数据量小时相应减少列表数
+    private static final int MIN_SAMPLES_PER_LIST = 39;
+    private static final long SEED = 42L;
+    private static final ByteOrder ORDER = ByteOrder.LITTLE_ENDIAN;
+
+    private final int dimension;
+    private final int lists;
+    private final int subspaces;
+    private final int subDimension;
+    private final int codes;
+    private final long trainedRows;
+    private final float[] centroids;
+    private final float[] centroidNorms;
+    private final float[] codebooks;
+    /**
+     * 按 [子空间维度][码字] 转置的码本，编码时沿码字方向连续计算距离
+     */
+    private final float[] transposedCodebooks;
+
+    private IvfPqModel(int dimension, int lists, int subspaces, int codes, long trainedRows,
+                       float[] centroids, float[] codebooks) {
+        this.dimension = dimension;
+        this.lists = lists;
+        this.subspaces = subspaces;
+        this.subDimension = dimension / subspaces;
+        this.codes = codes;
+        this.trainedRows = trainedRows;
+        this.centroids = centroids;
+        this.centroidNorms = KMeans.squaredNorms(centroids, lists, dimension);
+        this.codebooks = codebooks;
+        this.transposedCodebooks = new float[codebooks.length];
+        for (int j = 0; j < subspaces; j++) {
+            for (int code = 0; code < codes; code++) {
+                for (int d = 0; d < subDimension; d++) {
+                    transposedCodebooks[(j * subDimension + d) * codes + code] =
+                            codebooks[(j * codes + code) * subDimension + d];
+                }
+            }
+        }
+    }
+
+    /**
+     * 从现有向量中均匀抽样训练模型
+     *
+     * @param vectors    训练数据
+     * @param lists      粗聚类质心数，样本不足时按每个质心 39 个样本相应减少
+     * @param subspaces  PQ 子空间数，必须整除向量维度
+     * @param sampleSize 最大训练样本数
+     * @param iterations k-means 迭代次数
+     */
+    public static IvfPqModel train(SegmentedIndex vectors, int lists, int subspaces, int sampleSize, int iterations) {
+        int dimension = vectors.dimension();
+        if (subspaces <= 0 || dimension % subspaces != 0) {
+            throw new IllegalArgumentException("向量维度 " + dimension + " 不能被 PQ 子空间数 " + subspaces + " 整除");
+        }
+        int n = Math.min(vectors.size(), sampleSize);
+        float[] sample = new float[n * dimension];
+        for (int i = 0; i < n; i++) {
+            int ordinal = (int) ((long) i * vectors.size() / n);
+            System.arraycopy(vectors.row(ordinal), 0, sample, i * dimension, dimension);
+        }
+
+        int targetLists = Math.max(1, Math.min(lists, n / MIN_SAMPLES_PER_LIST));
+        float[] centroids = KMeans.train(sample, n, dimension, targetLists, iterations, SEED);
+        int trainedLists = centroids.length / dimension;
+        float[] norms = KMeans.squaredNorms(centroids, trainedLists, dimension);
+
+        // 残差原地覆盖样本
+        for (int i = 0; i < n; i++) {
+            int list = KMeans.nearest(sample, i * dimension, centroids, norms, trainedLists, dimension);
+            for (int d = 0; d < dimension; d++) {
+                sample[i * dimension + d] -= centroids[list * dimension + d];
+            }
+        }
+
+        int subDimension = dimension / subspaces;
+        int codes = Math.min(MAX_CODES, n);
+        float[] codebooks = new float[subspaces * codes * subDimension];
+        float[] subSample = new float[n * subDimension];
+        for (int j = 0; j < subspaces; j++) {
+            for (int i = 0; i < n; i++) {
+                System.arraycopy(sample, i * dimension + j * subDimension, subSample, i * subDimension, subDimension);
+            }
+            float[] codebook = KMeans.train(subSample, n, subDimension, codes, iterations, SEED + j + 1);
+            System.arraycopy(codebook, 0, codebooks, j * codes * subDimension, codebook.length);
+        }
+        return new IvfPqModel(dimension, trainedLists, subspaces, codes, vectors.size(), centroids, codebooks);
+    }
+
+    public int dimension() {
+        return dimension;
+    }
+
+    public int lists() {
+        return lists;
+    }
+
+    public int subspaces() {
+        return subspaces;
+    }
+
+    /**
+     * 训练时的数据行数
+     */
+    public long trainedRows() {
+        return trainedRows;
+    }
+
+    /**
+     * 向量所属的倒排列表
+     */
+    public int assign(float[] vector) {
+        return KMeans.nearest(vector, 0, centroids, centroidNorms, lists, dimension);
+    }
+
+    /**
+     * 将向量相对于列表质心的残差编码为 subspaces 个字节
+     */
+    public void encode(float[] vector, int list, byte[] target, int offset) {
+        float[] residual = new float[dimension];
+        int centroid = list * dimension;
+        for (int d = 0; d < dimension; d++) {
+            residual[d] = vector[d] - centroids[centroid + d];
+        }
+        float[] distances = new float[codes];
+        for (int j = 0; j < subspaces; j++) {
+            Arrays.fill(distances, 0f);
+            for (int d = 0; d < subDimension; d++) {
+                float x = residual[j * subDimension + d];
+                int base = (j * subDimension + d) * codes;
+                for (int code = 0; code < codes; code++) {
+                    float diff = x - transposedCodebooks[base + code];
+                    distances[code] += diff * diff;
+                }
+            }
+            int best = 0;
+            for (int code = 1; code < codes; code++) {
+                if (distances[code] < distances[best]) {
+                    best = code;
+                }
+            }
+            target[offset + j] = (byte) best;
+        }
+    }
+
+    /**
+     * 查询与各质心的内积
+     */
+    public float[] centroidScores(float[] unitQuery) {
+        float[] scores = new float[lists];
+        for (int c = 0; c < lists; c++) {
+            scores[c] = KMeans.dot(unitQuery, 0, centroids, c * dimension, dimension);
+        }
+        return scores;
+    }
+
+    /**
+     * 查询在各子空间与各码字的内积查找表，下标为 j * 256 + code
+     */
+    public float[] lookupTable(float[] unitQuery) {
+        float[] table = new float[subspaces * MAX_CODES];
+        for (int j = 0; j < subspaces; j++) {
+            for (int code = 0; code < codes; code++) {
+                table[j * MAX_CODES + code] = KMeans.dot(unitQuery, j * subDimension,
+                        codebooks, (j * codes + code) * subDimension, subDimension);
+            }
+        }
+        return table;
+    }
+
+    /**
+     * 以查找表计算一个 PQ 码的残差内积
+     */
+    public float residualScore(float[] table, byte[] data, int offset) {
+        float score = 0f;
+        for (int j = 0; j < subspaces; j++) {
+            score += table[j * MAX_CODES + (data[offset + j] & 0xFF)];
+        }
+        return score;
+    }
+
+    /**
+     * 读取模型文件，头部参数不合法或文件长度与参数不符时抛出 IOException
+     */
+    public static IvfPqModel read(Path file) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(file)).order(ORDER);
+        if (buffer.remaining() < HEADER_BYTES || buffer.getInt() != MAGIC) {
+            throw new IOException("不是有效的 IVF-PQ 模型文件：" + file);
+        }
+        int version = buffer.getInt();
+        if (version != VERSION) {
+            throw new IOException("不支持的 IVF-PQ 模型版本：" + version);
+        }
+        int dimension = buffer.getInt();
+        int lists = buffer.getInt();
+        int subspaces = buffer.getInt();
+        int codes = buffer.getInt();
+        long trainedRows = buffer.getLong();
+        if (dimension <= 0 || lists <= 0 || subspaces <= 0 || dimension % subspaces != 0
+                || codes <= 0 || codes > MAX_CODES || trainedRows < 0) {
+            throw new IOException("IVF-PQ 模型文件头部参数不合法：" + file);
+        }
+        long expected = HEADER_BYTES + ((long) lists + codes) * dimension * Float.BYTES;
+        if (buffer.capacity() != expected) {
+            throw new IOException("IVF-PQ 模型文件长度 " + buffer.capacity() + " 与头部参数不符，应为 " + expected + "：" + file);
+        }
+        float[] centroids = new float[lists * dimension];
+        float[] codebooks = new float[codes * dimension];
+        buffer.asFloatBuffer().get(centroids).get(codebooks);
+        return new IvfPqModel(dimension, lists, subspaces, codes, trainedRows, centroids, codebooks);
+    }
+
+    /**
+     * 写出模型文件，先写临时文件再原子替换
+     */
+    public void write(Path file) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_BYTES + (centroids.length + codebooks.length) * Float.BYTES)
+                .order(ORDER);
+        buffer.putInt(MAGIC).putInt(VERSION).putInt(dimension).putInt(lists)
+                .putInt(subspaces).putInt(codes).putLong(trainedRows);
+        buffer.asFloatBuffer().put(centroids).put(codebooks);
+        buffer.clear();
+
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(true);
+        }
+        try {
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+}
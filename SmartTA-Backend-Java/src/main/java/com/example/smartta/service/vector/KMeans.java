@@ -0,0 +1,100 @@
+package com.example.smartta.service.vector;
+
+import java.util.SplittableRandom;
+import java.util.stream.IntStream;
+
+/**
+ * Lloyd k-means 聚类
+ * 数据与质心均以行主序平铺在 float 数组中，按欧氏距离分配，分配步骤按样本并行
+ */
+final class KMeans {
+
+    private static final DotProductKernel KERNEL = DotProductKernels.get();
+
+    private KMeans() {
+    }
+
+    /**
+     * 训练质心
+     *
+     * @param data       n * dimension 的样本数据
+     * @param n          样本数
+     * @param dimension  维度
+     * @param k          质心数，样本不足时取样本数
+     * @param iterations 迭代次数
+     * @param seed       初始化随机种子
+     * @return min(k, n) * dimension 的质心数据
+     */
+    static float[] train(float[] data, int n, int dimension, int k, int iterations, long seed) {
+        int clusters = Math.min(k, n);
+        SplittableRandom random = new SplittableRandom(seed);
+        float[] centroids = new float[clusters * dimension];
+        int[] initial = random.ints(0, n).distinct().limit(clusters).toArray();
+        for (int c = 0; c < clusters; c++) {
+            System.arraycopy(data, initial[c] * dimension, centroids, c * dimension, dimension);
+        }
+
+        int[] assignment = new int[n];
+        for (int iteration = 0; iteration < iterations; iteration++) {
+            float[] norms = squaredNorms(centroids, clusters, dimension);
+            float[] current = centroids;
+            IntStream.range(0, n).parallel().forEach(i ->
+                    assignment[i] = nearest(data, i * dimension, current, norms, clusters, dimension));
+
+            float[] sums = new float[clusters * dimension];
+            int[] counts = new int[clusters];
+            for (int i = 0; i < n; i++) {
+                int c = assignment[i];
+                counts[c]++;
+                int from = i * dimension;
+                int to = c * dimension;
+                for (int d = 0; d < dimension; d++) {
+                    sums[to + d] += data[from + d];
+                }
+            }
+            for (int c = 0; c < clusters; c++) {
+                int offset = c * dimension;
+                if (counts[c] == 0) {
+                    // 空簇重新取一个随机样本作为质心
+                    System.arraycopy(data, random.nextInt(n) * dimension, centroids, offset, dimension);
+                    continue;
+                }
+                float inverse = 1f / counts[c];
+                for (int d = 0; d < dimension; d++) {
+                    centroids[offset + d] = sums[offset + d] * inverse;
+                }
+            }
+        }
+        return centroids;
+    }
+
+    /**
+     * 距离指定样本最近的质心下标
+     */
+    static int nearest(float[] data, int offset, float[] centroids, float[] squaredNorms,
+                       int clusters, int dimension) {
+        int best = 0;
+        float bestDistance = Float.MAX_VALUE;
+        for (int c = 0; c < clusters; c++) {
+            // ||x - c||^2 去掉与质心无关的 ||x||^2 项
+            float distance = squaredNorms[c] - 2f * dot(data, offset, centroids, c * dimension, dimension);
+            if (distance < bestDistance) {
+                bestDistance = distance;
+                best = c;
+            }
+        }
+        return best;
+    }
+
+    static float[] squaredNorms(float[] centroids, int clusters, int dimension) {
+        float[] norms = new float[clusters];
+        for (int c = 0; c < clusters; c++) {
+            norms[c] = dot(centroids, c * dimension, centroids, c * dimension, dimension);
+        }
+        return norms;
+    }
+
+    static float dot(float[] a, int aOffset, float[] b, int bOffset, int dimension) {
+        return KERNEL.dot(a, aOffset, b, bOffset, dimension);
+    }
+}
@@ -0,0 +1,64 @@
+package com.example.smartta.service.vector;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 基于文件映射的文档块文本表
+ * 文本保留在索引文件的映射区中，只在按序号读取时解码，不常驻堆内存
+ */
+final class MappedChunkTable implements ChunkTable {
+
+    private static final int FIELDS_PER_CHUNK = 3;
+
+    private final int count;
+    private final ByteBuffer textIndex;
+    private final ByteBuffer text;
+
+    /**
+     * @param count     文档块数量
+     * @param textIndex 文本偏移表，3 * count + 1 个小端序 long
+     * @param text      UTF-8 文本区
+     */
+    MappedChunkTable(int count, ByteBuffer textIndex, ByteBuffer text) {
+        this.count = count;
+        this.textIndex = textIndex;
+        this.text = text;
+    }
+
+    @Override
+    public int size() {
+        return count;
+    }
+
+    @Override
+    public String source(int ordinal) {
+        return emptyToNull(read(ordinal, 0));
+    }
+
+    @Override
+    public String page(int ordinal) {
+        return emptyToNull(read(ordinal, 1));
+    }
+
+    @Override
+    public String content(int ordinal) {
+        return read(ordinal, 2);
+    }
+
+    private String read(int ordinal, int column) {
+        if (ordinal < 0 || ordinal >= count) {
+            throw new IndexOutOfBoundsException("文档块序号越界：" + ordinal);
+        }
+        int field = ordinal * FIELDS_PER_CHUNK + column;
+        long start = textIndex.getLong(field * Long.BYTES);
+        long end = textIndex.getLong((field + 1) * Long.BYTES);
+        byte[] bytes = new byte[(int) (end - start)];
+        text.get((int) start, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static String emptyToNull(String value) {
+        return value.isEmpty() ? null : value;
+    }
+}
@@ -0,0 +1,68 @@
+package com.example.smartta.service.vector;
+
+import java.util.Collection;
+import java.util.Set;
+
+/**
+ * 元数据过滤条件
+ * 来源按名称精确匹配，页码按闭区间匹配；未指定的条件不做限制，页码无法解析为整数的文档块不满足页码条件
+ */
+public final class MetadataFilter {
+
+    private final Set<String> sources;
+    private final Integer pageFrom;
+    private final Integer pageTo;
+
+    /**
+     * @param sources  允许的来源，为 null 或空表示不限
+     * @param pageFrom 起始页码（含），为 null 表示不限
+     * @param pageTo   结束页码（含），为 null 表示不限
+     */
+    public MetadataFilter(Collection<String> sources, Integer pageFrom, Integer pageTo) {
+        this.sources = sources == null || sources.isEmpty() ? null : Set.copyOf(sources);
+        this.pageFrom = pageFrom;
+        this.pageTo = pageTo;
+    }
+
+    /**
+     * 是否不含任何限制
+     */
+    public boolean isEmpty() {
+        return sources == null && !hasPageRange();
+    }
+
+    /**
+     * 允许的来源，不限时为 null
+     */
+    public Set<String> sources() {
+        return sources;
+    }
+
+    public boolean hasPageRange() {
+        return pageFrom != null || pageTo != null;
+    }
+
+    /**
+     * 页码是否落在区间内
+     */
+    public boolean matchesPage(String page) {
+        if (!hasPageRange()) {
+            return true;
+        }
+        if (page == null) {
+            return false;
+        }
+        int number;
+        try {
+            number = Integer.parseInt(page.trim());
+        } catch (NumberFormatException e) {
+            return false;
+        }
+        return (pageFrom == null || number >= pageFrom) && (pageTo == null || number <= pageTo);
+    }
+
+    @Override
+    public String toString() {
+        return "MetadataFilter{sources=" + sources + ", pages=" + pageFrom + ".." + pageTo + "}";
+    }
+}
@@ -0,0 +1,66 @@
+package com.example.smartta.service.vector;
+
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 段内元数据位图索引
+ * 为每个来源与每个页码各保存一个段内序号位图，过滤时对位图求并、求交得到候选行，
+ * 检索只需扫描位图中的行，开销随过滤条件的选择度下降
+ */
+public final class MetadataIndex {
+
+    private final int size;
+    private final Map<String, BitSet> sources;
+    private final Map<String, BitSet> pages;
+
+    private MetadataIndex(int size, Map<String, BitSet> sources, Map<String, BitSet> pages) {
+        this.size = size;
+        this.sources = sources;
+        this.pages = pages;
+    }
+
+    /**
+     * 扫描文档块文本表的来源与页码列构建位图
+     */
+    public static MetadataIndex build(ChunkTable columns) {
+        int size = columns.size();
+        Map<String, BitSet> sources = new HashMap<>();
+        Map<String, BitSet> pages = new HashMap<>();
+        for (int row = 0; row < size; row++) {
+            sources.computeIfAbsent(columns.source(row), key -> new BitSet()).set(row);
+            pages.computeIfAbsent(columns.page(row), key -> new BitSet()).set(row);
+        }
+        return new MetadataIndex(size, sources, pages);
+    }
+
+    /**
+     * 满足过滤条件的段内序号
+     */
+    public BitSet select(MetadataFilter filter) {
+        BitSet selected;
+        if (filter.sources() != null) {
+            selected = new BitSet(size);
+            for (String source : filter.sources()) {
+                BitSet rows = sources.get(source);
+                if (rows != null) {
+                    selected.or(rows);
+                }
+            }
+        } else {
+            selected = new BitSet(size);
+            selected.set(0, size);
+        }
+        if (filter.hasPageRange() && !selected.isEmpty()) {
+            BitSet inRange = new BitSet(size);
+            for (Map.Entry<String, BitSet> entry : pages.entrySet()) {
+                if (filter.matchesPage(entry.getKey())) {
+                    inRange.or(entry.getValue());
+                }
+            }
+            selected.and(inRange);
+        }
+        return selected;
+    }
+}
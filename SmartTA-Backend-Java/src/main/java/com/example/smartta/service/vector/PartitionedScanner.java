@@ -0,0 +1,185 @@
+package com.example.smartta.service.vector;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 分区并行扫描器
+ * 将序号区间切成缓存大小的分区，在专用 ForkJoinPool 上各自求局部 Top-K 后归并
+ */
+public final class PartitionedScanner implements AutoCloseable {
+
+    private final ForkJoinPool pool;
+    private final int partitionSize;
+
+    /**
+     * @param parallelism   工作线程数
+     * @param partitionSize 每个分区的行数
+     * @param threadPrefix  工作线程名前缀
+     */
+    public PartitionedScanner(int parallelism, int partitionSize, String threadPrefix) {
+        if (parallelism <= 0 || partitionSize <= 0) {
+            throw new IllegalArgumentException("并行度与分区大小必须为正数");
+        }
+        this.partitionSize = partitionSize;
+        AtomicInteger counter = new AtomicInteger();
+        this.pool = new ForkJoinPool(parallelism, p -> {
+            ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(p);
+            thread.setName(threadPrefix + "-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }, null, false);
+    }
+
+    public int parallelism() {
+        return pool.getParallelism();
+    }
+
+    /**
+     * 对 [0, size) 做分区并行扫描
+     *
+     * @param size   总行数
+     * @param topK   返回数量
+     * @param scorer 区间打分函数
+     */
+    public SearchHits scan(int size, int topK, RangeScorer scorer) {
+        if (size <= 0 || topK <= 0) {
+            return SearchHits.empty();
+        }
+        return pool.invoke(new PartitionTask(0, size, topK, scorer)).drain();
+    }
+
+    /**
+     * 对 [0, size) 为一组查询做分区并行扫描，每个分区内各行只读取一次
+     *
+     * @param size       总行数
+     * @param queryCount 查询个数
+     * @param topK       每个查询的返回数量
+     * @param scorer     区间批量打分函数
+     * @return 与查询一一对应的结果
+     */
+    public SearchHits[] scanBatch(int size, int queryCount, int topK, BatchRangeScorer scorer) {
+        SearchHits[] results = new SearchHits[queryCount];
+        if (size <= 0 || topK <= 0) {
+            Arrays.fill(results, SearchHits.empty());
+            return results;
+        }
+        TopKSelector[] selectors = pool.invoke(new BatchPartitionTask(0, size, queryCount, topK, scorer));
+        for (int q = 0; q < queryCount; q++) {
+            results[q] = selectors[q].drain();
+        }
+        return results;
+    }
+
+    @Override
+    public void close() {
+        pool.shutdown();
+        try {
+            if (!pool.awaitTermination(5, TimeUnit.SECONDS)) {
+                pool.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            pool.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * 区间打分函数：对 [from, to) 内的每一行打分并提交到选择器
+     */
+    @FunctionalInterface
+    public interface RangeScorer {
+        void score(int from, int to, TopKSelector selector);
+    }
+
+    /**
+     * 区间批量打分函数：对 [from, to) 内的每一行为每个查询打分，第 q 个查询的结果提交到 selectors[q]
+     */
+    @FunctionalInterface
+    public interface BatchRangeScorer {
+        void score(int from, int to, TopKSelector[] selectors);
+    }
+
+    /**
+     * 为每个查询各建一个选择器
+     */
+    public static TopKSelector[] selectors(int queryCount, int topK) {
+        TopKSelector[] selectors = new TopKSelector[queryCount];
+        for (int q = 0; q < queryCount; q++) {
+            selectors[q] = new TopKSelector(topK);
+        }
+        return selectors;
+    }
+
+    private final class PartitionTask extends RecursiveTask<TopKSelector> {
+        private final int from;
+        private final int to;
+        private final int topK;
+        private final RangeScorer scorer;
+
+        PartitionTask(int from, int to, int topK, RangeScorer scorer) {
+            this.from = from;
+            this.to = to;
+            this.topK = topK;
+            this.scorer = scorer;
+        }
+
+        @Override
+        protected TopKSelector compute() {
+            if (to - from <= partitionSize) {
+                TopKSelector selector = new TopKSelector(topK);
+                scorer.score(from, to, selector);
+                return selector;
+            }
+            // 按分区边界对半切分，保证叶子任务都是完整分区
+            int partitions = (to - from + partitionSize - 1) / partitionSize;
+            int mid = from + (partitions / 2) * partitionSize;
+            PartitionTask left = new PartitionTask(from, mid, topK, scorer);
+            PartitionTask right = new PartitionTask(mid, to, topK, scorer);
+            left.fork();
+            TopKSelector merged = right.compute();
+            merged.merge(left.join());
+            return merged;
+        }
+    }
+
+    private final class BatchPartitionTask extends RecursiveTask<TopKSelector[]> {
+        private final int from;
+        private final int to;
+        private final int queryCount;
+        private final int topK;
+        private final BatchRangeScorer scorer;
+
+        BatchPartitionTask(int from, int to, int queryCount, int topK, BatchRangeScorer scorer) {
+            this.from = from;
+            this.to = to;
+            this.queryCount = queryCount;
+            this.topK = topK;
+            this.scorer = scorer;
+        }
+
+        @Override
+        protected TopKSelector[] compute() {
+            if (to - from <= partitionSize) {
+                TopKSelector[] selectors = selectors(queryCount, topK);
+                scorer.score(from, to, selectors);
+                return selectors;
+            }
+            int partitions = (to - from + partitionSize - 1) / partitionSize;
+            int mid = from + (partitions / 2) * partitionSize;
+            BatchPartitionTask left = new BatchPartitionTask(from, mid, queryCount, topK, scorer);
+            BatchPartitionTask right = new BatchPartitionTask(mid, to, queryCount, topK, scorer);
+            left.fork();
+            TopKSelector[] merged = right.compute();
+            TopKSelector[] other = left.join();
+            for (int q = 0; q < queryCount; q++) {
+                merged[q].merge(other[q]);
+            }
+            return merged;
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package com.example.smartta.service.vector;
+
+/**
+ * 降维投影矩阵
+ * 保存每行经 {@link RandomProjection} 投影后的低维向量。正交投影近似保持内积的相对大小，
+ * 投影得分只用于粗筛，最终排序仍以原始向量重新打分
+ */
+public final class ProjectedMatrix {
+
+    private final RandomProjection projection;
+    private final int size;
+    private final DotProductKernel kernel = DotProductKernels.get();
+    private final float[] data;
+
+    private ProjectedMatrix(RandomProjection projection, int size, float[] data) {
+        this.projection = projection;
+        this.size = size;
+        this.data = data;
+    }
+
+    /**
+     * 投影嵌入矩阵的全部行
+     */
+    public static ProjectedMatrix project(EmbeddingMatrix matrix, RandomProjection projection) {
+        int reduced = projection.reducedDimension();
+        int size = matrix.size();
+        if ((long) reduced * size > Integer.MAX_VALUE) {
+            throw new IllegalStateException("投影矩阵超出单个数组上限");
+        }
+        float[] data = new float[reduced * size];
+        for (int row = 0; row < size; row++) {
+            projection.project(matrix.row(row), data, row * reduced);
+        }
+        return new ProjectedMatrix(projection, size, data);
+    }
+
+    public RandomProjection projection() {
+        return projection;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * 与已投影查询向量的近似相似度
+     */
+    public float similarity(int ordinal, float[] projectedQuery) {
+        int reduced = projection.reducedDimension();
+        return kernel.dot(data, ordinal * reduced, projectedQuery, 0, reduced);
+    }
+}
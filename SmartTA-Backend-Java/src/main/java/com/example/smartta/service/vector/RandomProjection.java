@@ -0,0 +1,119 @@
+package com.example.smartta.service.vector;
+
+import java.util.SplittableRandom;
+
+/**
+ * 随机正交投影
+ * 以固定种子生成高斯随机矩阵，并对其行做 Gram-Schmidt 正交化，得到 reducedDimension 个单位正交基。
+ * 相同的维度与种子总能得到相同的投影，因此投影副本无需持久化，重启后按需重新计算即可
+ */
+public final class RandomProjection {
+
+    private final int dimension;
+    private final int reducedDimension;
+    private final long seed;
+    /**
+     * reducedDimension * dimension 的行主序基矩阵，各行两两正交且为单位长度
+     */
+    private final float[] basis;
+
+    private RandomProjection(int dimension, int reducedDimension, long seed, float[] basis) {
+        this.dimension = dimension;
+        this.reducedDimension = reducedDimension;
+        this.seed = seed;
+        this.basis = basis;
+    }
+
+    /**
+     * 生成投影
+     *
+     * @param dimension        原始维度
+     * @param reducedDimension 投影后的维度，不超过原始维度
+     * @param seed             随机种子
+     */
+    public static RandomProjection create(int dimension, int reducedDimension, long seed) {
+        if (reducedDimension <= 0 || reducedDimension > dimension) {
+            throw new IllegalArgumentException("投影维度必须在 1 到 " + dimension + " 之间：" + reducedDimension);
+        }
+        SplittableRandom random = new SplittableRandom(seed);
+        double[] rows = new double[reducedDimension * dimension];
+        for (int r = 0; r < reducedDimension; r++) {
+            int offset = r * dimension;
+            double norm;
+            do {
+                for (int d = 0; d < dimension; d++) {
+                    rows[offset + d] = gaussian(random);
+                }
+                // 减去在已有基向量上的分量，数值上做两遍以保证正交性
+                for (int pass = 0; pass < 2; pass++) {
+                    for (int prev = 0; prev < r; prev++) {
+                        double dot = 0;
+                        for (int d = 0; d < dimension; d++) {
+                            dot += rows[offset + d] * rows[prev * dimension + d];
+                        }
+                        for (int d = 0; d < dimension; d++) {
+                            rows[offset + d] -= dot * rows[prev * dimension + d];
+                        }
+                    }
+                }
+                norm = 0;
+                for (int d = 0; d < dimension; d++) {
+                    norm += rows[offset + d] * rows[offset + d];
+                }
+                norm = Math.sqrt(norm);
+            } while (norm < 1e-6);
+            for (int d = 0; d < dimension; d++) {
+                rows[offset + d] /= norm;
+            }
+        }
+
+        float[] basis = new float[rows.length];
+        for (int i = 0; i < rows.length; i++) {
+            basis[i] = (float) rows[i];
+        }
+        return new RandomProjection(dimension, reducedDimension, seed, basis);
+    }
+
+    public int dimension() {
+        return dimension;
+    }
+
+    public int reducedDimension() {
+        return reducedDimension;
+    }
+
+    /**
+     * 是否与给定参数生成的投影相同
+     */
+    public boolean matches(int dimension, int reducedDimension, long seed) {
+        return this.dimension == dimension && this.reducedDimension == reducedDimension && this.seed == seed;
+    }
+
+    /**
+     * 投影一个向量
+     */
+    public float[] project(float[] vector) {
+        float[] target = new float[reducedDimension];
+        project(vector, target, 0);
+        return target;
+    }
+
+    /**
+     * 将向量投影后写入 target 的 offset 处
+     */
+    public void project(float[] vector, float[] target, int offset) {
+        if (vector.length != dimension) {
+            throw new IllegalArgumentException("向量维度不匹配：期望 " + dimension + "，实际 " + vector.length);
+        }
+        for (int r = 0; r < reducedDimension; r++) {
+            target[offset + r] = KMeans.dot(vector, 0, basis, r * dimension, dimension);
+        }
+    }
+
+    private static double gaussian(SplittableRandom random) {
+        // Box-Muller 变换
+        double u = 1.0 - random.nextDouble();
+        double v = random.nextDouble();
+        return Math.sqrt(-2.0 * Math.log(u)) * Math.cos(2.0 * Math.PI * v);
+    }
+}
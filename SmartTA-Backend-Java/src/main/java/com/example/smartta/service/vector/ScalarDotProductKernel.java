@@ -0,0 +1,131 @@
+package com.example.smartta.service.vector;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * 标量点积内核
+ * 未启用 jdk.incubator.vector 模块时的回退实现
+ */
+final class ScalarDotProductKernel implements DotProductKernel {
+
+    @Override
+    public float dot(ByteBuffer data, int offset, float[] query, int dimension) {
+        float s0 = 0f;
+        float s1 = 0f;
+        float s2 = 0f;
+        float s3 = 0f;
+        int i = 0;
+        for (; i + 3 < dimension; i += 4) {
+            int base = offset + i * Float.BYTES;
+            s0 += data.getFloat(base) * query[i];
+            s1 += data.getFloat(base + 4) * query[i + 1];
+            s2 += data.getFloat(base + 8) * query[i + 2];
+            s3 += data.getFloat(base + 12) * query[i + 3];
+        }
+        for (; i < dimension; i++) {
+            s0 += data.getFloat(offset + i * Float.BYTES) * query[i];
+        }
+        return (s0 + s1) + (s2 + s3);
+    }
+
+    @Override
+    public float dot(ByteBuffer first, int firstOffset, ByteBuffer second, int secondOffset, int dimension) {
+        float sum = 0f;
+        int bytes = dimension * Float.BYTES;
+        for (int i = 0; i < bytes; i += Float.BYTES) {
+            sum += first.getFloat(firstOffset + i) * second.getFloat(secondOffset + i);
+        }
+        return sum;
+    }
+
+    @Override
+    public int dot(byte[] codes, int offset, byte[] query, int dimension) {
+        int s0 = 0;
+        int s1 = 0;
+        int s2 = 0;
+        int s3 = 0;
+        int i = 0;
+        for (; i + 3 < dimension; i += 4) {
+            s0 += codes[offset + i] * query[i];
+            s1 += codes[offset + i + 1] * query[i + 1];
+            s2 += codes[offset + i + 2] * query[i + 2];
+            s3 += codes[offset + i + 3] * query[i + 3];
+        }
+        for (; i < dimension; i++) {
+            s0 += codes[offset + i] * query[i];
+        }
+        return (s0 + s1) + (s2 + s3);
+    }
+
+    @Override
+    public float dot(float[] first, int firstOffset, float[] second, int secondOffset, int dimension) {
+        float s0 = 0f;
+        float s1 = 0f;
+        float s2 = 0f;
+        float s3 = 0f;
+        int i = 0;
+        for (; i + 3 < dimension; i += 4) {
+            s0 += first[firstOffset + i] * second[secondOffset + i];
+            s1 += first[firstOffset + i + 1] * second[secondOffset + i + 1];
+            s2 += first[firstOffset + i + 2] * second[secondOffset + i + 2];
+            s3 += first[firstOffset + i + 3] * second[secondOffset + i + 3];
+        }
+        for (; i < dimension; i++) {
+            s0 += first[firstOffset + i] * second[secondOffset + i];
+        }
+        return (s0 + s1) + (s2 + s3);
+    }
+
+    @Override
+    public float dotHalf(ByteBuffer data, int offset, float[] query, int dimension) {
+        float s0 = 0f;
+        float s1 = 0f;
+        int i = 0;
+        for (; i + 1 < dimension; i += 2) {
+            int base = offset + i * Short.BYTES;
+            s0 += HalfFloat.toFloat(data.getShort(base)) * query[i];
+            s1 += HalfFloat.toFloat(data.getShort(base + 2)) * query[i + 1];
+        }
+        for (; i < dimension; i++) {
+            s0 += HalfFloat.toFloat(data.getShort(offset + i * Short.BYTES)) * query[i];
+        }
+        return s0 + s1;
+    }
+
+    @Override
+    public float dotHalf(ByteBuffer first, int firstOffset, ByteBuffer second, int secondOffset, int dimension) {
+        float sum = 0f;
+        int bytes = dimension * Short.BYTES;
+        for (int i = 0; i < bytes; i += Short.BYTES) {
+            sum += HalfFloat.toFloat(first.getShort(firstOffset + i)) * HalfFloat.toFloat(second.getShort(secondOffset + i));
+        }
+        return sum;
+    }
+
+    @Override
+    public void dotBlock(ByteBuffer data, int offset, float[] queries, int queryOffset, int queryCount,
+                         int dimension, float[] scores) {
+        Arrays.fill(scores, 0, queryCount, 0f);
+        for (int i = 0; i < dimension; i++) {
+            accumulate(data.getFloat(offset + i * Float.BYTES), queries, queryOffset + i, queryCount, dimension, scores);
+        }
+    }
+
+    @Override
+    public void dotHalfBlock(ByteBuffer data, int offset, float[] queries, int queryOffset, int queryCount,
+                             int dimension, float[] scores) {
+        Arrays.fill(scores, 0, queryCount, 0f);
+        for (int i = 0; i < dimension; i++) {
+            float value = HalfFloat.toFloat(data.getShort(offset + i * Short.BYTES));
+            accumulate(value, queries, queryOffset + i, queryCount, dimension, scores);
+        }
+    }
+
+    private static void accumulate(float value, float[] queries, int index, int queryCount, int dimension,
+                                   float[] scores) {
+        for (int q = 0; q < queryCount; q++) {
+            scores[q] += value * queries[index + q * dimension];
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package com.example.smartta.service.vector;
+
+/**
+ * 检索结果
+ * 以并列的原始数组保存按分数降序排列的文档序号与相似度
+ */
+public final class SearchHits {
+
+    private static final SearchHits EMPTY = new SearchHits(new int[0], new float[0]);
+
+    private final int[] ordinals;
+    private final float[] scores;
+
+    public SearchHits(int[] ordinals, float[] scores) {
+        if (ordinals.length != scores.length) {
+            throw new IllegalArgumentException("序号与分数数量不一致");
+        }
+        this.ordinals = ordinals;
+        this.scores = scores;
+    }
+
+    public static SearchHits empty() {
+        return EMPTY;
+    }
+
+    public int size() {
+        return ordinals.length;
+    }
+
+    public int ordinal(int rank) {
+        return ordinals[rank];
+    }
+
+    public float score(int rank) {
+        return scores[rank];
+    }
+}
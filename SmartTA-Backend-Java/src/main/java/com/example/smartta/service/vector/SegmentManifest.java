@@ -0,0 +1,39 @@
+package com.example.smartta.service.vector;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 段清单
+ * 按顺序列出当前有效的段文件，段的先后顺序即全局文档序号的顺序；
+ * 各段的墓碑位图与段列表写在同一文件中，删除与追加可在一次原子替换中提交
+ */
+@Data
+@NoArgsConstructor
+public class SegmentManifest {
+    private int version = 1;
+    private long nextSegmentId = 1;
+    private List<Entry> segments = new ArrayList<>();
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class Entry {
+        private String file;
+        private int count;
+        /**
+         * 已删除段内序号的位图（{@link java.util.BitSet#toLongArray()}），无删除时省略
+         */
+        @JsonInclude(JsonInclude.Include.NON_NULL)
+        private long[] deleted;
+
+        public Entry(String file, int count) {
+            this(file, count, null);
+        }
+    }
+}
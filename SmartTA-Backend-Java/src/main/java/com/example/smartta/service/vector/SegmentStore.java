@@ -0,0 +1,293 @@
+package com.example.smartta.service.vector;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * 只追加的段存储
+ * 每批新增文档写成一个不可变的段文件，清单文件按顺序记录当前有效的段。
+ * 所有对清单的修改都先写临时文件再原子替换，段文件在从清单移除后才删除
+ */
+@Slf4j
+public final class SegmentStore {
+
+    public static final String MANIFEST_FILE = "manifest.json";
+
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".bin";
+
+    private final Path directory;
+    private final ObjectMapper mapper = new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT);
+    private SegmentManifest manifest;
+
+    public SegmentStore(Path directory) {
+        this.directory = directory;
+    }
+
+    public Path directory() {
+        return directory;
+    }
+
+    /**
+     * 清单文件是否存在
+     */
+    public boolean exists() {
+        return Files.exists(directory.resolve(MANIFEST_FILE));
+    }
+
+    /**
+     * 读取清单并映射全部段文件
+     */
+    public synchronized List<IndexSegment> open() throws IOException {
+        manifest = mapper.readValue(directory.resolve(MANIFEST_FILE).toFile(), SegmentManifest.class);
+        List<IndexSegment> segments = new ArrayList<>(manifest.getSegments().size());
+        for (SegmentManifest.Entry entry : manifest.getSegments()) {
+            IndexSegment segment = openSegment(entry.getFile());
+            if (entry.getDeleted() != null) {
+                segment = segment.withDeleted(BitSet.valueOf(entry.getDeleted()));
+            }
+            segments.add(segment);
+        }
+        return segments;
+    }
+
+    /**
+     * 写出一个新段并追加到清单末尾
+     */
+    public synchronized IndexSegment append(EmbeddingMatrix matrix, ChunkColumns columns) throws IOException {
+        return append(matrix, columns, List.of());
+    }
+
+    /**
+     * 写出一个新段并追加到清单末尾，同时提交已有段的墓碑变更，两者在同一次清单替换中生效
+     *
+     * @param tombstones 墓碑已更新的段
+     */
+    public synchronized IndexSegment append(EmbeddingMatrix matrix, ChunkColumns columns,
+                                            Collection<IndexSegment> tombstones) throws IOException {
+        ensureManifest();
+        IndexSegment segment = writeSegment(matrix, columns);
+        applyTombstones(tombstones);
+        manifest.getSegments().add(new SegmentManifest.Entry(segment.name(), segment.size()));
+        saveManifest();
+        return segment;
+    }
+
+    /**
+     * 提交已有段的墓碑变更
+     *
+     * @param tombstones 墓碑已更新的段
+     */
+    public synchronized void markDeleted(Collection<IndexSegment> tombstones) throws IOException {
+        if (manifest == null || tombstones.isEmpty()) {
+            return;
+        }
+        applyTombstones(tombstones);
+        saveManifest();
+    }
+
+    /**
+     * 将已有的单文件索引（如 index.bin）移入存储，作为清单中的第一个段
+     */
+    public synchronized IndexSegment adopt(Path indexFile) throws IOException {
+        Files.createDirectories(directory);
+        manifest = new SegmentManifest();
+        String name = nextSegmentName();
+        Files.move(indexFile, directory.resolve(name), StandardCopyOption.REPLACE_EXISTING);
+        IndexSegment segment = openSegment(name);
+        manifest.getSegments().add(new SegmentManifest.Entry(name, segment.size()));
+        saveManifest();
+        return segment;
+    }
+
+    /**
+     * 用给定数据替换全部段（全量重建）
+     */
+    public synchronized IndexSegment reset(EmbeddingMatrix matrix, ChunkColumns columns) throws IOException {
+        Files.createDirectories(directory);
+        List<String> obsolete = manifest != null ? fileNames(manifest.getSegments()) : List.of();
+        long nextId = manifest != null ? manifest.getNextSegmentId() : 1;
+        manifest = new SegmentManifest();
+        manifest.setNextSegmentId(nextId);
+        IndexSegment segment = writeSegment(matrix, columns);
+        manifest.getSegments().add(new SegmentManifest.Entry(segment.name(), segment.size()));
+        saveManifest();
+        deleteSegments(obsolete);
+        return segment;
+    }
+
+    /**
+     * 将一组相邻段中未删除的行合并写成新段文件，尚不修改清单。
+     * 写文件期间不持有存储锁，不阻塞新段的追加
+     *
+     * @return 合并后的段，全部行均已删除时为 null
+     */
+    public IndexSegment writeMerged(List<IndexSegment> run) throws IOException {
+        int total = 0;
+        for (IndexSegment segment : run) {
+            total += segment.liveCount();
+        }
+        if (total == 0) {
+            return null;
+        }
+        EmbeddingMatrix first = run.get(0).matrix();
+        EmbeddingMatrix matrix = new EmbeddingMatrix(first.dimension(), total, first.precision());
+        ChunkColumns columns = new ChunkColumns();
+        for (IndexSegment segment : run) {
+            if (segment.deletedCount() == 0) {
+                matrix.appendRows(segment.matrix());
+                columns.appendAll(segment.columns());
+                continue;
+            }
+            ChunkTable source = segment.columns();
+            for (int row = 0; row < segment.size(); row++) {
+                if (!segment.isDeleted(row)) {
+                    matrix.appendRow(segment.matrix(), row);
+                    columns.append(source.source(row), source.page(row), source.content(row));
+                }
+            }
+        }
+        return writeSegment(matrix, columns);
+    }
+
+    /**
+     * 在清单中用合并段替换原有的相邻段，并删除被替换的段文件
+     *
+     * @param merged 合并后的段，为 null 表示被替换段已全部删除，直接从清单移除
+     * @return 清单中仍能找到完整的相邻段序列并完成替换时返回 true
+     */
+    public synchronized boolean commitMerge(List<IndexSegment> run, IndexSegment merged) throws IOException {
+        List<SegmentManifest.Entry> entries = manifest.getSegments();
+        List<String> names = new ArrayList<>(run.size());
+        for (IndexSegment segment : run) {
+            names.add(segment.name());
+        }
+        int from = fileNames(entries).indexOf(names.get(0));
+        if (from < 0 || from + names.size() > entries.size()
+                || !fileNames(entries.subList(from, from + names.size())).equals(names)) {
+            return false;
+        }
+        entries.subList(from, from + names.size()).clear();
+        if (merged != null) {
+            entries.add(from, new SegmentManifest.Entry(merged.name(), merged.size()));
+        }
+        saveManifest();
+        deleteSegments(names);
+        return true;
+    }
+
+    /**
+     * 删除未进入清单的段文件（如被放弃的合并结果）
+     */
+    public synchronized void discard(IndexSegment segment) {
+        if (segment != null) {
+            deleteSegments(List.of(segment.name()));
+        }
+    }
+
+    /**
+     * 清理目录中不在清单里的残留段文件
+     */
+    public synchronized void removeOrphans() throws IOException {
+        if (manifest == null || !Files.isDirectory(directory)) {
+            return;
+        }
+        Set<String> live = new HashSet<>(fileNames(manifest.getSegments()));
+        List<String> orphans = new ArrayList<>();
+        try (var files = Files.list(directory)) {
+            files.map(path -> path.getFileName().toString())
+                    .filter(name -> name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX))
+                    .filter(name -> !live.contains(name))
+                    .forEach(orphans::add);
+        }
+        if (!orphans.isEmpty()) {
+            log.info("清理残留段文件：{}", orphans);
+            deleteSegments(orphans);
+        }
+    }
+
+    private void applyTombstones(Collection<IndexSegment> tombstones) throws IOException {
+        for (IndexSegment segment : tombstones) {
+            SegmentManifest.Entry entry = manifest.getSegments().stream()
+                    .filter(candidate -> candidate.getFile().equals(segment.name()))
+                    .findFirst()
+                    .orElseThrow(() -> new IOException("清单中不存在段：" + segment.name()));
+            entry.setDeleted(segment.deletedCount() > 0 ? segment.deleted().toLongArray() : null);
+        }
+    }
+
+    private IndexSegment writeSegment(EmbeddingMatrix matrix, ChunkColumns columns) throws IOException {
+        Files.createDirectories(directory);
+        String name = allocateSegmentName();
+        VectorIndexFile.write(directory.resolve(name), matrix, columns);
+        return openSegment(name);
+    }
+
+    private IndexSegment openSegment(String name) throws IOException {
+        VectorIndexFile file = VectorIndexFile.open(directory.resolve(name));
+        if (file.matrix() == null) {
+            throw new IOException("段文件为空：" + name);
+        }
+        return new IndexSegment(name, file.matrix(), file.columns());
+    }
+
+    private synchronized String allocateSegmentName() throws IOException {
+        ensureManifest();
+        return nextSegmentName();
+    }
+
+    private String nextSegmentName() {
+        long id = manifest.getNextSegmentId();
+        manifest.setNextSegmentId(id + 1);
+        return String.format("%s%06d%s", SEGMENT_PREFIX, id, SEGMENT_SUFFIX);
+    }
+
+    private void ensureManifest() throws IOException {
+        if (manifest == null) {
+            Files.createDirectories(directory);
+            manifest = new SegmentManifest();
+        }
+    }
+
+    private void saveManifest() throws IOException {
+        Path target = directory.resolve(MANIFEST_FILE);
+        Path temp = directory.resolve(MANIFEST_FILE + ".tmp");
+        mapper.writeValue(temp.toFile(), manifest);
+        try {
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private void deleteSegments(List<String> names) {
+        for (String name : names) {
+            try {
+                Files.deleteIfExists(directory.resolve(name));
+            } catch (IOException e) {
+                // 部分平台上仍被映射的文件无法删除，留待下次启动时清理
+                log.warn("删除段文件失败：{}，原因：{}", name, e.getMessage());
+            }
+        }
+    }
+
+    private static List<String> fileNames(List<SegmentManifest.Entry> entries) {
+        List<String> names = new ArrayList<>(entries.size());
+        for (SegmentManifest.Entry entry : entries) {
+            names.add(entry.getFile());
+        }
+        return names;
+    }
+}
@@ -0,0 +1,350 @@
+package com.example.smartta.service.vector;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 分段索引
+ * 将多个索引段按顺序拼接为一个连续的全局序号空间。
+ * 实例不可变，追加或替换段都返回新实例，可在线程间无锁共享
+ */
+public final class SegmentedIndex implements VectorSource {
+
+    private static final SegmentedIndex EMPTY = new SegmentedIndex(List.of());
+    // 批量扫描的分块大小：64 行 float32 约 96KB，32 个查询约 48KB，合计可留在 L2 缓存中
+    private static final int ROW_TILE = 64;
+    private static final int QUERY_BLOCK = 32;
+
+    private final List<IndexSegment> segments;
+    private final int[] bases;
+    private final int size;
+    private final int deletedCount;
+
+    private SegmentedIndex(List<IndexSegment> segments) {
+        this.segments = List.copyOf(segments);
+        this.bases = new int[this.segments.size()];
+        int total = 0;
+        int deleted = 0;
+        for (int i = 0; i < this.segments.size(); i++) {
+            IndexSegment segment = this.segments.get(i);
+            if (segment.matrix().dimension() != this.segments.get(0).matrix().dimension()) {
+                throw new IllegalArgumentException("段向量维度不一致：" + segment.name());
+            }
+            bases[i] = total;
+            total += segment.size();
+            deleted += segment.deletedCount();
+        }
+        this.size = total;
+        this.deletedCount = deleted;
+    }
+
+    public static SegmentedIndex of(List<IndexSegment> segments) {
+        return segments.isEmpty() ? EMPTY : new SegmentedIndex(segments);
+    }
+
+    public List<IndexSegment> segments() {
+        return segments;
+    }
+
+    @Override
+    public int dimension() {
+        return segments.isEmpty() ? 0 : segments.get(0).matrix().dimension();
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /**
+     * 已标记删除、尚未被合并清除的行数
+     */
+    public int deletedCount() {
+        return deletedCount;
+    }
+
+    /**
+     * 指定全局序号的行是否已删除
+     */
+    public boolean isDeleted(int ordinal) {
+        if (deletedCount == 0) {
+            return false;
+        }
+        int segment = segmentOf(ordinal);
+        return segments.get(segment).isDeleted(ordinal - bases[segment]);
+    }
+
+    /**
+     * 在末尾追加一个段
+     *
+     * @return 追加后的新索引
+     */
+    public SegmentedIndex append(IndexSegment segment) {
+        List<IndexSegment> next = new ArrayList<>(segments.size() + 1);
+        next.addAll(segments);
+        next.add(segment);
+        return new SegmentedIndex(next);
+    }
+
+    /**
+     * 用一个合并后的段替换 [from, to) 范围内的连续段，合并段只包含被替换段中未删除的行。
+     * 被替换段没有删除时全局序号保持不变，否则其后各行的序号前移
+     *
+     * @param merged 合并后的段，被替换段已全部删除时为 null
+     * @return 替换后的新索引
+     */
+    public SegmentedIndex replace(int from, int to, IndexSegment merged) {
+        int liveRows = 0;
+        for (int i = from; i < to; i++) {
+            liveRows += segments.get(i).liveCount();
+        }
+        if (liveRows != (merged != null ? merged.size() : 0)) {
+            throw new IllegalArgumentException("合并段行数与被替换段不一致");
+        }
+        List<IndexSegment> next = new ArrayList<>(segments);
+        next.subList(from, to).clear();
+        if (merged != null) {
+            next.add(from, merged);
+        }
+        return next.isEmpty() ? EMPTY : new SegmentedIndex(next);
+    }
+
+    /**
+     * 用同名、行数相同但墓碑不同的段替换对应位置的段，全局序号保持不变
+     *
+     * @param updated 按段名替换的新段
+     * @return 替换后的新索引
+     */
+    public SegmentedIndex withTombstones(Map<String, IndexSegment> updated) {
+        List<IndexSegment> next = new ArrayList<>(segments.size());
+        for (IndexSegment segment : segments) {
+            IndexSegment replacement = updated.getOrDefault(segment.name(), segment);
+            if (replacement.size() != segment.size()) {
+                throw new IllegalArgumentException("替换段行数不一致：" + segment.name());
+            }
+            next.add(replacement);
+        }
+        return new SegmentedIndex(next);
+    }
+
+    /**
+     * 全局序号所在段的下标
+     */
+    public int segmentOf(int ordinal) {
+        if (ordinal < 0 || ordinal >= size) {
+            throw new IndexOutOfBoundsException("文档序号越界：" + ordinal);
+        }
+        int low = 0;
+        int high = bases.length - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (bases[mid] <= ordinal) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * 指定段第一行的全局序号
+     */
+    public int base(int segmentIndex) {
+        return bases[segmentIndex];
+    }
+
+    @Override
+    public float similarity(int ordinal, float[] unitQuery) {
+        int segment = segmentOf(ordinal);
+        return segments.get(segment).matrix().similarity(ordinal - bases[segment], unitQuery);
+    }
+
+    @Override
+    public float similarity(int first, int second) {
+        int firstSegment = segmentOf(first);
+        int secondSegment = segmentOf(second);
+        return segments.get(firstSegment).matrix().similarity(first - bases[firstSegment],
+                segments.get(secondSegment).matrix(), second - bases[secondSegment]);
+    }
+
+    /**
+     * 对全局序号区间 [from, to) 逐段打分并提交到选择器
+     */
+    public void scan(int from, int to, float[] unitQuery, TopKSelector selector) {
+        if (from >= to) {
+            return;
+        }
+        for (int s = segmentOf(from); s < segments.size() && bases[s] < to; s++) {
+            IndexSegment segment = segments.get(s);
+            EmbeddingMatrix matrix = segment.matrix();
+            int base = bases[s];
+            int localFrom = Math.max(from - base, 0);
+            int localTo = Math.min(to - base, matrix.size());
+            for (int local = localFrom; local < localTo; local++) {
+                if (!segment.isDeleted(local)) {
+                    selector.offer(base + local, matrix.similarity(local, unitQuery));
+                }
+            }
+        }
+    }
+
+    /**
+     * 满足过滤条件且未删除的全局序号位图
+     */
+    public BitSet select(MetadataFilter filter) {
+        BitSet selected = new BitSet(size);
+        for (int s = 0; s < segments.size(); s++) {
+            IndexSegment segment = segments.get(s);
+            BitSet local = segment.metadata().select(filter);
+            if (segment.deletedCount() > 0) {
+                local.andNot(segment.deleted());
+            }
+            int base = bases[s];
+            for (int row = local.nextSetBit(0); row >= 0; row = local.nextSetBit(row + 1)) {
+                selected.set(base + row);
+            }
+        }
+        return selected;
+    }
+
+    /**
+     * 只对全局序号区间 [from, to) 内位图选中的行打分并提交到选择器
+     */
+    public void scanSelected(int from, int to, BitSet selected, float[] unitQuery, TopKSelector selector) {
+        int ordinal = selected.nextSetBit(from);
+        while (ordinal >= 0 && ordinal < to) {
+            int s = segmentOf(ordinal);
+            EmbeddingMatrix matrix = segments.get(s).matrix();
+            int base = bases[s];
+            int end = Math.min(to, base + matrix.size());
+            for (; ordinal >= 0 && ordinal < end; ordinal = selected.nextSetBit(ordinal + 1)) {
+                selector.offer(ordinal, matrix.similarity(ordinal - base, unitQuery));
+            }
+        }
+    }
+
+    /**
+     * 对全局序号区间 [from, to) 同时为一组查询打分，第 q 个查询的结果提交到 selectors[q]。
+     * 按 ROW_TILE 行一块、QUERY_BLOCK 个查询一组分块计算，块内的行与查询都留在缓存中，
+     * 每行在一次批量扫描中只从内存读取一次
+     *
+     * @param unitQueries 按行平铺的已单位化查询向量
+     * @param selectors   每个查询各自的选择器
+     */
+    public void scanBatch(int from, int to, float[] unitQueries, TopKSelector[] selectors) {
+        if (from >= to) {
+            return;
+        }
+        int queryCount = selectors.length;
+        float[] scores = new float[Math.min(queryCount, QUERY_BLOCK)];
+        for (int s = segmentOf(from); s < segments.size() && bases[s] < to; s++) {
+            IndexSegment segment = segments.get(s);
+            EmbeddingMatrix matrix = segment.matrix();
+            int base = bases[s];
+            int localFrom = Math.max(from - base, 0);
+            int localTo = Math.min(to - base, matrix.size());
+            for (int tile = localFrom; tile < localTo; tile += ROW_TILE) {
+                int tileEnd = Math.min(tile + ROW_TILE, localTo);
+                for (int q = 0; q < queryCount; q += QUERY_BLOCK) {
+                    int count = Math.min(QUERY_BLOCK, queryCount - q);
+                    for (int local = tile; local < tileEnd; local++) {
+                        if (segment.isDeleted(local)) {
+                            continue;
+                        }
+                        matrix.similarity(local, unitQueries, q * matrix.dimension(), count, scores);
+                        for (int i = 0; i < count; i++) {
+                            selectors[q + i].offer(base + local, scores[i]);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * 以 int8 量化副本对全局序号区间 [from, to) 近似打分并提交到选择器
+     */
+    public void scanInt8(int from, int to, Int8Matrix.Query query, TopKSelector selector) {
+        if (from >= to) {
+            return;
+        }
+        for (int s = segmentOf(from); s < segments.size() && bases[s] < to; s++) {
+            IndexSegment segment = segments.get(s);
+            Int8Matrix codes = segment.int8();
+            int base = bases[s];
+            int localFrom = Math.max(from - base, 0);
+            int localTo = Math.min(to - base, codes.size());
+            for (int local = localFrom; local < localTo; local++) {
+                if (!segment.isDeleted(local)) {
+                    selector.offer(base + local, codes.similarity(local, query));
+                }
+            }
+        }
+    }
+
+    /**
+     * 以二值量化副本对全局序号区间 [from, to) 近似打分并提交到选择器
+     */
+    public void scanBinary(int from, int to, long[] query, TopKSelector selector) {
+        if (from >= to) {
+            return;
+        }
+        for (int s = segmentOf(from); s < segments.size() && bases[s] < to; s++) {
+            IndexSegment segment = segments.get(s);
+            BinaryMatrix codes = segment.binary();
+            int base = bases[s];
+            int localFrom = Math.max(from - base, 0);
+            int localTo = Math.min(to - base, codes.size());
+            for (int local = localFrom; local < localTo; local++) {
+                if (!segment.isDeleted(local)) {
+                    selector.offer(base + local, codes.similarity(local, query));
+                }
+            }
+        }
+    }
+
+    /**
+     * 以降维投影副本对全局序号区间 [from, to) 近似打分并提交到选择器
+     */
+    public void scanProjected(int from, int to, RandomProjection projection, float[] projectedQuery,
+                              TopKSelector selector) {
+        if (from >= to) {
+            return;
+        }
+        for (int s = segmentOf(from); s < segments.size() && bases[s] < to; s++) {
+            IndexSegment segment = segments.get(s);
+            ProjectedMatrix vectors = segment.projected(projection);
+            int base = bases[s];
+            int localFrom = Math.max(from - base, 0);
+            int localTo = Math.min(to - base, vectors.size());
+            for (int local = localFrom; local < localTo; local++) {
+                if (!segment.isDeleted(local)) {
+                    selector.offer(base + local, vectors.similarity(local, projectedQuery));
+                }
+            }
+        }
+    }
+
+    public String source(int ordinal) {
+        int segment = segmentOf(ordinal);
+        return segments.get(segment).columns().source(ordinal - bases[segment]);
+    }
+
+    public String page(int ordinal) {
+        int segment = segmentOf(ordinal);
+        return segments.get(segment).columns().page(ordinal - bases[segment]);
+    }
+
+    public String content(int ordinal) {
+        int segment = segmentOf(ordinal);
+        return segments.get(segment).columns().content(ordinal - bases[segment]);
+    }
+
+    public float[] row(int ordinal) {
+        int segment = segmentOf(ordinal);
+        return segments.get(segment).matrix().row(ordinal - bases[segment]);
+    }
+}
@@ -0,0 +1,134 @@
+package com.example.smartta.service.vector;
+
+/**
+ * 定长 Top-K 选择器
+ * 以原始分数/序号数组维护一个大小为 k 的最小堆，扫描过程中不产生任何对象分配
+ */
+public final class TopKSelector {
+
+    private final int k;
+    private final float[] scores;
+    private final int[] ordinals;
+    private int size;
+
+    public TopKSelector(int k) {
+        if (k <= 0) {
+            throw new IllegalArgumentException("topK 必须为正数：" + k);
+        }
+        this.k = k;
+        this.scores = new float[k];
+        this.ordinals = new int[k];
+    }
+
+    public int capacity() {
+        return k;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * 是否已装满 k 个结果
+     */
+    public boolean isFull() {
+        return size == k;
+    }
+
+    /**
+     * 进入结果集所需超过的最低分数，未装满时为负无穷
+     */
+    public float threshold() {
+        return size == k ? scores[0] : Float.NEGATIVE_INFINITY;
+    }
+
+    /**
+     * 提交一个候选
+     *
+     * @return 候选是否进入了结果集
+     */
+    public boolean offer(int ordinal, float score) {
+        if (size < k) {
+            siftUp(size++, ordinal, score);
+            return true;
+        }
+        if (score <= scores[0]) {
+            return false;
+        }
+        siftDown(ordinal, score);
+        return true;
+    }
+
+    /**
+     * 合并另一个选择器中的全部结果
+     */
+    public void merge(TopKSelector other) {
+        for (int i = 0; i < other.size; i++) {
+            offer(other.ordinals[i], other.scores[i]);
+        }
+    }
+
+    /**
+     * 清空结果以便复用
+     */
+    public void clear() {
+        size = 0;
+    }
+
+    /**
+     * 按分数降序导出结果，导出后选择器被清空
+     */
+    public SearchHits drain() {
+        int count = size;
+        int[] sortedOrdinals = new int[count];
+        float[] sortedScores = new float[count];
+        for (int i = count - 1; i >= 0; i--) {
+            sortedOrdinals[i] = ordinals[0];
+            sortedScores[i] = scores[0];
+            size--;
+            if (size > 0) {
+                siftDown(ordinals[size], scores[size]);
+            }
+        }
+        return new SearchHits(sortedOrdinals, sortedScores);
+    }
+
+    private void siftUp(int index, int ordinal, float score) {
+        int i = index;
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (scores[parent] <= score) {
+                break;
+            }
+            scores[i] = scores[parent];
+            ordinals[i] = ordinals[parent];
+            i = parent;
+        }
+        scores[i] = score;
+        ordinals[i] = ordinal;
+    }
+
+    /**
+     * 用新元素替换堆顶并下沉
+     */
+    private void siftDown(int ordinal, float score) {
+        int i = 0;
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= size) {
+                break;
+            }
+            if (child + 1 < size && scores[child + 1] < scores[child]) {
+                child++;
+            }
+            if (scores[child] >= score) {
+                break;
+            }
+            scores[i] = scores[child];
+            ordinals[i] = ordinals[child];
+            i = child;
+        }
+        scores[i] = score;
+        ordinals[i] = ordinal;
+    }
+}
@@ -0,0 +1,234 @@
+package com.example.smartta.service.vector;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.ShortVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShape;
+import jdk.incubator.vector.VectorSpecies;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * 基于 JDK Vector API 的 SIMD 点积内核
+ * 仅在运行时启用 jdk.incubator.vector 模块时由 {@link DotProductKernels} 反射加载
+ */
+final class VectorApiDotProductKernel implements DotProductKernel {
+
+    private static final VectorSpecies<Float> SPECIES = FloatVector.SPECIES_PREFERRED;
+    // 每次加载 8 个 int8 码，符号扩展为 8 路 int 后相乘累加
+    private static final VectorSpecies<Byte> CODE_SPECIES = ByteVector.SPECIES_64;
+    private static final VectorSpecies<Integer> SUM_SPECIES = IntVector.SPECIES_256;
+    // 半精度按与 float 相同的路数加载，位宽减半
+    private static final VectorSpecies<Short> HALF_SPECIES =
+            VectorSpecies.of(short.class, VectorShape.forBitSize(SPECIES.vectorBitSize() / 2));
+    private static final VectorSpecies<Integer> HALF_BITS_SPECIES = SPECIES.withLanes(int.class);
+    private static final ByteOrder ORDER = ByteOrder.LITTLE_ENDIAN;
+
+    @Override
+    public float dot(ByteBuffer data, int offset, float[] query, int dimension) {
+        FloatVector acc = FloatVector.zero(SPECIES);
+        int bound = SPECIES.loopBound(dimension);
+        int i = 0;
+        for (; i < bound; i += SPECIES.length()) {
+            FloatVector row = FloatVector.fromByteBuffer(SPECIES, data, offset + i * Float.BYTES, ORDER);
+            FloatVector q = FloatVector.fromArray(SPECIES, query, i);
+            acc = row.fma(q, acc);
+        }
+        float sum = acc.reduceLanes(VectorOperators.ADD);
+        for (; i < dimension; i++) {
+            sum += data.getFloat(offset + i * Float.BYTES) * query[i];
+        }
+        return sum;
+    }
+
+    @Override
+    public float dot(ByteBuffer first, int firstOffset, ByteBuffer second, int secondOffset, int dimension) {
+        FloatVector acc = FloatVector.zero(SPECIES);
+        int bound = SPECIES.loopBound(dimension);
+        int i = 0;
+        for (; i < bound; i += SPECIES.length()) {
+            int delta = i * Float.BYTES;
+            FloatVector a = FloatVector.fromByteBuffer(SPECIES, first, firstOffset + delta, ORDER);
+            FloatVector b = FloatVector.fromByteBuffer(SPECIES, second, secondOffset + delta, ORDER);
+            acc = a.fma(b, acc);
+        }
+        float sum = acc.reduceLanes(VectorOperators.ADD);
+        for (; i < dimension; i++) {
+            int delta = i * Float.BYTES;
+            sum += first.getFloat(firstOffset + delta) * second.getFloat(secondOffset + delta);
+        }
+        return sum;
+    }
+
+    @Override
+    public int dot(byte[] codes, int offset, byte[] query, int dimension) {
+        IntVector acc = IntVector.zero(SUM_SPECIES);
+        int bound = CODE_SPECIES.loopBound(dimension);
+        int i = 0;
+        for (; i < bound; i += CODE_SPECIES.length()) {
+            IntVector row = (IntVector) ByteVector.fromArray(CODE_SPECIES, codes, offset + i)
+                    .convertShape(VectorOperators.B2I, SUM_SPECIES, 0);
+            IntVector q = (IntVector) ByteVector.fromArray(CODE_SPECIES, query, i)
+                    .convertShape(VectorOperators.B2I, SUM_SPECIES, 0);
+            acc = row.mul(q).add(acc);
+        }
+        int sum = acc.reduceLanes(VectorOperators.ADD);
+        for (; i < dimension; i++) {
+            sum += codes[offset + i] * query[i];
+        }
+        return sum;
+    }
+
+    @Override
+    public float dot(float[] first, int firstOffset, float[] second, int secondOffset, int dimension) {
+        FloatVector acc = FloatVector.zero(SPECIES);
+        int bound = SPECIES.loopBound(dimension);
+        int i = 0;
+        for (; i < bound; i += SPECIES.length()) {
+            FloatVector a = FloatVector.fromArray(SPECIES, first, firstOffset + i);
+            FloatVector b = FloatVector.fromArray(SPECIES, second, secondOffset + i);
+            acc = a.fma(b, acc);
+        }
+        float sum = acc.reduceLanes(VectorOperators.ADD);
+        for (; i < dimension; i++) {
+            sum += first[firstOffset + i] * second[secondOffset + i];
+        }
+        return sum;
+    }
+
+    @Override
+    public float dotHalf(ByteBuffer data, int offset, float[] query, int dimension) {
+        FloatVector acc = FloatVector.zero(SPECIES);
+        int bound = SPECIES.loopBound(dimension);
+        int i = 0;
+        for (; i < bound; i += SPECIES.length()) {
+            FloatVector row = widen(data, offset + i * Short.BYTES);
+            FloatVector q = FloatVector.fromArray(SPECIES, query, i);
+            acc = row.fma(q, acc);
+        }
+        float sum = acc.reduceLanes(VectorOperators.ADD);
+        for (; i < dimension; i++) {
+            sum += HalfFloat.toFloat(data.getShort(offset + i * Short.BYTES)) * query[i];
+        }
+        return sum;
+    }
+
+    @Override
+    public float dotHalf(ByteBuffer first, int firstOffset, ByteBuffer second, int secondOffset, int dimension) {
+        FloatVector acc = FloatVector.zero(SPECIES);
+        int bound = SPECIES.loopBound(dimension);
+        int i = 0;
+        for (; i < bound; i += SPECIES.length()) {
+            int delta = i * Short.BYTES;
+            acc = widen(first, firstOffset + delta).fma(widen(second, secondOffset + delta), acc);
+        }
+        float sum = acc.reduceLanes(VectorOperators.ADD);
+        for (; i < dimension; i++) {
+            int delta = i * Short.BYTES;
+            sum += HalfFloat.toFloat(first.getShort(firstOffset + delta))
+                    * HalfFloat.toFloat(second.getShort(secondOffset + delta));
+        }
+        return sum;
+    }
+
+    @Override
+    public void dotBlock(ByteBuffer data, int offset, float[] queries, int queryOffset, int queryCount,
+                         int dimension, float[] scores) {
+        block(data, offset, false, queries, queryOffset, queryCount, dimension, scores);
+    }
+
+    @Override
+    public void dotHalfBlock(ByteBuffer data, int offset, float[] queries, int queryOffset, int queryCount,
+                             int dimension, float[] scores) {
+        block(data, offset, true, queries, queryOffset, queryCount, dimension, scores);
+    }
+
+    /**
+     * 每次取四个查询共用一次行加载，四个累加器相互独立，便于流水线并行
+     */
+    private static void block(ByteBuffer data, int offset, boolean half, float[] queries, int queryOffset,
+                              int queryCount, int dimension, float[] scores) {
+        int bound = SPECIES.loopBound(dimension);
+        int q = 0;
+        for (; q + 3 < queryCount; q += 4) {
+            int q0 = queryOffset + q * dimension;
+            int q1 = q0 + dimension;
+            int q2 = q1 + dimension;
+            int q3 = q2 + dimension;
+            FloatVector acc0 = FloatVector.zero(SPECIES);
+            FloatVector acc1 = FloatVector.zero(SPECIES);
+            FloatVector acc2 = FloatVector.zero(SPECIES);
+            FloatVector acc3 = FloatVector.zero(SPECIES);
+            int i = 0;
+            for (; i < bound; i += SPECIES.length()) {
+                FloatVector row = load(data, offset, half, i);
+                acc0 = row.fma(FloatVector.fromArray(SPECIES, queries, q0 + i), acc0);
+                acc1 = row.fma(FloatVector.fromArray(SPECIES, queries, q1 + i), acc1);
+                acc2 = row.fma(FloatVector.fromArray(SPECIES, queries, q2 + i), acc2);
+                acc3 = row.fma(FloatVector.fromArray(SPECIES, queries, q3 + i), acc3);
+            }
+            float s0 = acc0.reduceLanes(VectorOperators.ADD);
+            float s1 = acc1.reduceLanes(VectorOperators.ADD);
+            float s2 = acc2.reduceLanes(VectorOperators.ADD);
+            float s3 = acc3.reduceLanes(VectorOperators.ADD);
+            for (; i < dimension; i++) {
+                float value = component(data, offset, half, i);
+                s0 += value * queries[q0 + i];
+                s1 += value * queries[q1 + i];
+                s2 += value * queries[q2 + i];
+                s3 += value * queries[q3 + i];
+            }
+            scores[q] = s0;
+            scores[q + 1] = s1;
+            scores[q + 2] = s2;
+            scores[q + 3] = s3;
+        }
+        for (; q < queryCount; q++) {
+            int start = queryOffset + q * dimension;
+            FloatVector acc = FloatVector.zero(SPECIES);
+            int i = 0;
+            for (; i < bound; i += SPECIES.length()) {
+                acc = load(data, offset, half, i).fma(FloatVector.fromArray(SPECIES, queries, start + i), acc);
+            }
+            float sum = acc.reduceLanes(VectorOperators.ADD);
+            for (; i < dimension; i++) {
+                sum += component(data, offset, half, i) * queries[start + i];
+            }
+            scores[q] = sum;
+        }
+    }
+
+    private static FloatVector load(ByteBuffer data, int offset, boolean half, int index) {
+        return half
+                ? widen(data, offset + index * Short.BYTES)
+                : FloatVector.fromByteBuffer(SPECIES, data, offset + index * Float.BYTES, ORDER);
+    }
+
+    private static float component(ByteBuffer data, int offset, boolean half, int index) {
+        return half
+                ? HalfFloat.toFloat(data.getShort(offset + index * Short.BYTES))
+                : data.getFloat(offset + index * Float.BYTES);
+    }
+
+    /**
+     * 将一组半精度分量按位扩展为 float：正规数重排指数位与尾数位，次正规数按 尾数 * 2^-24 换算。
+     * 库内向量已单位化，不会出现无穷与 NaN
+     */
+    private static FloatVector widen(ByteBuffer data, int offset) {
+        IntVector bits = (IntVector) ShortVector.fromByteBuffer(HALF_SPECIES, data, offset, ORDER)
+                .convertShape(VectorOperators.S2I, HALF_BITS_SPECIES, 0);
+        IntVector sign = bits.and(0x8000).lanewise(VectorOperators.LSHL, 16);
+        IntVector magnitude = bits.and(0x7fff);
+        IntVector normal = magnitude.add(0x1c000).lanewise(VectorOperators.LSHL, 13).or(sign);
+        IntVector subnormal = ((FloatVector) magnitude.convert(VectorOperators.I2F, 0))
+                .mul(0x1p-24f)
+                .reinterpretAsInts()
+                .or(sign);
+        VectorMask<Integer> isSubnormal = magnitude.compare(VectorOperators.LT, 0x0400);
+        return normal.blend(subnormal, isSubnormal).reinterpretAsFloats();
+    }
+}
@@ -0,0 +1,209 @@
+package com.example.smartta.service.vector;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * 向量索引二进制文件格式（小端序）
+ *
+ * <pre>
+ * 文件头（64 字节）
+ *   int  magic           固定为 "STAI"
+ *   int  version         格式版本
+ *   int  dimension       向量维度
+ *   int  count           文档块数量
+ *   long vectorOffset    向量区起始位置
+ *   long textIndexOffset 文本偏移表起始位置
+ *   long textOffset      文本区起始位置
+ *   long textLength      文本区字节数
+ *   int  precision       向量分量精度：0 为 float32，1 为 float16（版本 2 起）
+ * 向量区：count * dimension 个单位化后的分量，按行主序排列
+ * 文本偏移表：3 * count + 1 个 long，依次为每个文档块的来源、页码、正文在文本区中的起始位置
+ * 文本区：UTF-8 编码的字符串，来源与页码为 null 时记为空串
+ * </pre>
+ *
+ * 打开时通过 {@link FileChannel#map} 映射，向量区直接作为嵌入矩阵的存储使用，无需反序列化；
+ * 文本区同样保持映射，读取某个文档块时才解码
+ */
+public final class VectorIndexFile {
+
+    public static final String FILE_NAME = "index.bin";
+
+    private static final int MAGIC = 0x53544149;
+    private static final int VERSION = 2;
+    // 版本 1 无精度字段，向量区固定为 float32
+    private static final int VERSION_FLOAT32_ONLY = 1;
+    private static final int HEADER_BYTES = 64;
+    private static final int FIELDS_PER_CHUNK = 3;
+    private static final ByteOrder ORDER = ByteOrder.LITTLE_ENDIAN;
+
+    private final int dimension;
+    private final int count;
+    private final EmbeddingMatrix matrix;
+    private final ChunkTable columns;
+
+    private VectorIndexFile(int dimension, int count, EmbeddingMatrix matrix, ChunkTable columns) {
+        this.dimension = dimension;
+        this.count = count;
+        this.matrix = matrix;
+        this.columns = columns;
+    }
+
+    public int dimension() {
+        return dimension;
+    }
+
+    public int count() {
+        return count;
+    }
+
+    /**
+     * 映射到向量区的嵌入矩阵，文件为空时为 null
+     */
+    public EmbeddingMatrix matrix() {
+        return matrix;
+    }
+
+    /**
+     * 映射到文本区的文档块文本表，按需解码
+     */
+    public ChunkTable columns() {
+        return columns;
+    }
+
+    /**
+     * 映射并打开索引文件
+     */
+    public static VectorIndexFile open(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() < HEADER_BYTES) {
+                throw new IOException("索引文件过短：" + file);
+            }
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_BYTES).order(ORDER);
+            if (header.getInt(0) != MAGIC) {
+                throw new IOException("不是有效的向量索引文件：" + file);
+            }
+            int version = header.getInt(4);
+            if (version != VERSION && version != VERSION_FLOAT32_ONLY) {
+                throw new IOException("不支持的索引文件版本：" + version);
+            }
+            int dimension = header.getInt(8);
+            int count = header.getInt(12);
+            long vectorOffset = header.getLong(16);
+            long textIndexOffset = header.getLong(24);
+            long textOffset = header.getLong(32);
+            long textLength = header.getLong(40);
+            VectorPrecision precision = version == VERSION_FLOAT32_ONLY
+                    ? VectorPrecision.FLOAT32
+                    : VectorPrecision.fromCode(header.getInt(48));
+
+            EmbeddingMatrix matrix = null;
+            if (count > 0) {
+                long vectorBytes = (long) count * dimension * precision.bytes();
+                MappedByteBuffer vectors = channel.map(FileChannel.MapMode.READ_ONLY, vectorOffset, vectorBytes);
+                matrix = EmbeddingMatrix.wrap(dimension, count, vectors, precision);
+            }
+
+            ByteBuffer textIndex = channel.map(FileChannel.MapMode.READ_ONLY, textIndexOffset,
+                    (long) (FIELDS_PER_CHUNK * count + 1) * Long.BYTES).order(ORDER);
+            ByteBuffer text = channel.map(FileChannel.MapMode.READ_ONLY, textOffset, textLength);
+            return new VectorIndexFile(dimension, count, matrix, new MappedChunkTable(count, textIndex, text));
+        }
+    }
+
+    /**
+     * 写出索引文件，先写临时文件再原子替换
+     *
+     * @param file    目标文件
+     * @param matrix  嵌入矩阵，可为 null 表示空索引
+     * @param columns 文档块文本表
+     */
+    public static void write(Path file, EmbeddingMatrix matrix, ChunkTable columns) throws IOException {
+        int count = columns.size();
+        int dimension = matrix != null ? matrix.dimension() : 0;
+        VectorPrecision precision = matrix != null ? matrix.precision() : VectorPrecision.FLOAT32;
+        if (matrix != null && matrix.size() != count) {
+            throw new IllegalStateException("向量数量与文档块数量不一致");
+        }
+
+        byte[][] encoded = new byte[FIELDS_PER_CHUNK * count][];
+        long textLength = 0;
+        for (int i = 0; i < count; i++) {
+            int field = i * FIELDS_PER_CHUNK;
+            encoded[field] = encode(columns.source(i));
+            encoded[field + 1] = encode(columns.page(i));
+            encoded[field + 2] = encode(columns.content(i));
+            textLength += encoded[field].length + encoded[field + 1].length + encoded[field + 2].length;
+        }
+
+        long vectorOffset = HEADER_BYTES;
+        long textIndexOffset = vectorOffset + (long) count * dimension * precision.bytes();
+        long textOffset = textIndexOffset + (long) (FIELDS_PER_CHUNK * count + 1) * Long.BYTES;
+
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ORDER);
+            header.putInt(MAGIC).putInt(VERSION).putInt(dimension).putInt(count)
+                    .putLong(vectorOffset).putLong(textIndexOffset).putLong(textOffset).putLong(textLength)
+                    .putInt(precision.code());
+            header.clear();
+            writeFully(channel, header);
+
+            if (matrix != null) {
+                writeFully(channel, matrix.rawData());
+            }
+
+            ByteBuffer offsets = ByteBuffer.allocate((FIELDS_PER_CHUNK * count + 1) * Long.BYTES).order(ORDER);
+            long position = 0;
+            for (byte[] bytes : encoded) {
+                offsets.putLong(position);
+                position += bytes.length;
+            }
+            offsets.putLong(position);
+            offsets.flip();
+            writeFully(channel, offsets);
+
+            ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+            for (byte[] bytes : encoded) {
+                if (bytes.length > buffer.remaining()) {
+                    buffer.flip();
+                    writeFully(channel, buffer);
+                    buffer.clear();
+                }
+                if (bytes.length > buffer.capacity()) {
+                    writeFully(channel, ByteBuffer.wrap(bytes));
+                } else {
+                    buffer.put(bytes);
+                }
+            }
+            buffer.flip();
+            writeFully(channel, buffer);
+            channel.force(true);
+        }
+
+        try {
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private static byte[] encode(String value) {
+        return value == null ? new byte[0] : value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package com.example.smartta.service.vector;
+
+/**
+ * 嵌入向量的存储精度，编码值记录在段文件头中
+ */
+public enum VectorPrecision {
+
+    FLOAT32(0, Float.BYTES),
+    FLOAT16(1, Short.BYTES);
+
+    private final int code;
+    private final int bytes;
+
+    VectorPrecision(int code, int bytes) {
+        this.code = code;
+        this.bytes = bytes;
+    }
+
+    /**
+     * 文件头中的编码值
+     */
+    public int code() {
+        return code;
+    }
+
+    /**
+     * 每个分量占用的字节数
+     */
+    public int bytes() {
+        return bytes;
+    }
+
+    public static VectorPrecision fromCode(int code) {
+        for (VectorPrecision precision : values()) {
+            if (precision.code == code) {
+                return precision;
+            }
+        }
+        throw new IllegalArgumentException("未知的向量精度编码：" + code);
+    }
+
+    /**
+     * 按配置名称（float32 / float16，不区分大小写）解析
+     */
+    public static VectorPrecision fromName(String name) {
+        for (VectorPrecision precision : values()) {
+            if (precision.name().equalsIgnoreCase(name)) {
+                return precision;
+            }
+        }
+        throw new IllegalArgumentException("未知的向量精度：" + name);
+    }
+}
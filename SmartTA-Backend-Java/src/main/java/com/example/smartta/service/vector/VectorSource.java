@@ -0,0 +1,31 @@
+package com.example.smartta.service.vector;
+
+/**
+ * 可按序号访问的向量集合
+ * 为近似索引提供相似度计算，屏蔽底层存储方式
+ */
+public interface VectorSource {
+
+    /**
+     * 向量维度
+     */
+    int dimension();
+
+    /**
+     * 向量数量
+     */
+    int size();
+
+    /**
+     * 单位化查询向量与指定行的余弦相似度
+     *
+     * @param ordinal   行序号
+     * @param unitQuery 已单位化的查询向量
+     */
+    float similarity(int ordinal, float[] unitQuery);
+
+    /**
+     * 两行之间的余弦相似度
+     */
+    float similarity(int first, int second);
+}
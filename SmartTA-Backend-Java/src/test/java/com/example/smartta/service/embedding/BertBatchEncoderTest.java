@@ -0,0 +1,101 @@
+package com.example.smartta.service.embedding;
+
+import dev.langchain4j.model.embedding.onnx.allminilml6v2.AllMiniLmL6V2EmbeddingModel;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * 批量编码结果须与 LangChain4j 的 AllMiniLmL6V2EmbeddingModel 逐条编码一致，
+ * 否则升级前后入库的向量不可比，需要重建索引。
+ * 分词器配置截断到 128 个词元，长文本在两种实现中都只剩一个窗口，此处一并校验截断行为一致
+ */
+class BertBatchEncoderTest {
+
+    private static final float TOLERANCE = 1e-4f;
+
+    private static BertBatchEncoder encoder;
+    private static AllMiniLmL6V2EmbeddingModel reference;
+
+    @BeforeAll
+    static void load() {
+        encoder = BertBatchEncoder.fromClasspath("all-minilm-l6-v2.onnx", "all-minilm-l6-v2-tokenizer.json", 1);
+        reference = new AllMiniLmL6V2EmbeddingModel();
+    }
+
+    @AfterAll
+    static void close() {
+        encoder.close();
+    }
+
+    @Test
+    void shortText() {
+        assertMatches(List.of("What is the difference between a process and a thread?"));
+    }
+
+    @Test
+    void emptyText() {
+        // LangChain4j 拒绝空白文本，这里只要求得到 [CLS] [SEP] 一个窗口的单位向量
+        assertMatches(List.of(""));
+    }
+
+    @Test
+    void exactlyMaxWindowTokens() {
+        assertMatches(List.of("hello ".repeat(BertBatchEncoder.MAX_WINDOW_TOKENS).trim()));
+    }
+
+    @Test
+    void longerThanOneWindow() {
+        // 含多个 ## 子词
+        assertMatches(List.of("Garbage collectors unbelievably complicate deterministic deallocation. ".repeat(120)));
+    }
+
+    @Test
+    void mixedLengthsInOneBatch() {
+        // 不同长度的窗口在同一批内补齐，补齐位置不得影响结果
+        assertMatches(List.of(
+                "",
+                "Stack",
+                "What is the difference between a process and a thread?",
+                "hello ".repeat(BertBatchEncoder.MAX_WINDOW_TOKENS).trim(),
+                "Garbage collectors unbelievably complicate deterministic deallocation. ".repeat(120)));
+    }
+
+    /**
+     * 与 EmbeddingService 相同：全部窗口一次编码后按文本合并
+     */
+    private static void assertMatches(List<String> texts) {
+        List<List<BertBatchEncoder.Window>> windows = new ArrayList<>();
+        List<BertBatchEncoder.Window> batch = new ArrayList<>();
+        for (String text : texts) {
+            List<BertBatchEncoder.Window> textWindows = encoder.windows(text);
+            windows.add(textWindows);
+            batch.addAll(textWindows);
+        }
+        float[][] pooled = encoder.encode(batch);
+
+        int offset = 0;
+        for (int t = 0; t < texts.size(); t++) {
+            int count = windows.get(t).size();
+            List<float[]> vectors = List.of(pooled).subList(offset, offset + count);
+            offset += count;
+            float[] actual = BertBatchEncoder.combine(vectors, windows.get(t));
+            if (texts.get(t).isBlank()) {
+                double norm = 0;
+                for (float v : actual) {
+                    norm += v * v;
+                }
+                assertEquals(1.0, norm, TOLERANCE, "第 " + t + " 条文本的向量未单位化");
+                continue;
+            }
+            float[] expected = reference.embed(texts.get(t)).content().vector();
+            assertArrayEquals(expected, actual, TOLERANCE, "第 " + t + " 条文本的向量不一致");
+        }
+    }
+}